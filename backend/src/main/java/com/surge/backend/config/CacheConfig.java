@@ -22,7 +22,7 @@ public class CacheConfig {
     Caffeine<Object, Object> caffeineCacheBuilder() {
         return Caffeine.newBuilder()
                 .maximumSize(10_000)  // Maximum number of entries in cache
-                .expireAfterWrite(Duration.ofMinutes(10))  // Cause S3 generated link is defined to expire in 10mins as well
+                .expireAfterWrite(Duration.ofMinutes(10))
                 .recordStats(); // Enables cache statistics
     }
 }
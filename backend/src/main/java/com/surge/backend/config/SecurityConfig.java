@@ -1,8 +1,11 @@
 package com.surge.backend.config;
 
 import com.surge.backend.filter.JwtRequestFilter;
+import com.surge.backend.security.BoundedPasswordEncoder;
 import com.surge.backend.security.JwtAuthenticationEntryPoint;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.AsyncTaskExecutor;
@@ -47,6 +50,11 @@ public class SecurityConfig {
                                 .requestMatchers(HttpMethod.PUT, "/api/posts/**").hasRole("USER")
 
                                 .requestMatchers(HttpMethod.GET, "/api/user/**").hasRole("USER")
+                                .requestMatchers(HttpMethod.GET, "/api/images/**").hasRole("USER")
+
+                                // Signed urls of the local storage backend, LocalBlobController checks the signature
+                                .requestMatchers(HttpMethod.GET, "/api/blobs/**").permitAll()
+                                .requestMatchers(HttpMethod.PUT, "/api/blobs/**").permitAll()
 
                                 // Any other request needs authentication
                                 .anyRequest().authenticated()
@@ -66,8 +74,14 @@ public class SecurityConfig {
     }
 
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder(); // Use BCrypt for password hashing // By default uses 10 rounds, can change by passing the number as parameter to the BCryptPasswordEncoder(12)
+    public PasswordEncoder passwordEncoder(MeterRegistry meterRegistry,
+                                           @Value("${security.bcrypt.strength:10}") int strength,
+                                           @Value("${security.password-hashing.threads:2}") int threads,
+                                           @Value("${security.password-hashing.queue-capacity:64}") int queueCapacity,
+                                           @Value("${security.password-hashing.retry-after-seconds:1}") long retryAfterSeconds) {
+        // BCrypt with a configurable cost (log rounds), hashes stored with a lower cost are upgraded on the next successful login.
+        // All hashing runs on its own bounded pool instead of the request threads.
+        return new BoundedPasswordEncoder(new BCryptPasswordEncoder(strength), threads, queueCapacity, retryAfterSeconds, meterRegistry);
     }
 
     @Bean
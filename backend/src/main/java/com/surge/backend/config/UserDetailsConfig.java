@@ -1,17 +1,23 @@
 package com.surge.backend.config;
 
+import com.surge.backend.security.CachingUserDetailsManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.provisioning.JdbcUserDetailsManager;
-import org.springframework.security.provisioning.UserDetailsManager;
 
 import javax.sql.DataSource;
+import java.time.Duration;
 
 @Configuration
 public class UserDetailsConfig {
 
     @Bean
-    public UserDetailsManager userDetailsManager(DataSource dataSource) {
+    public CachingUserDetailsManager userDetailsManager(DataSource dataSource,
+                                                 MeterRegistry meterRegistry,
+                                                 @Value("${security.user-cache.ttl:60s}") Duration cacheTtl,
+                                                 @Value("${security.user-cache.max-size:10000}") long cacheMaxSize) {
         JdbcUserDetailsManager jdbcUserDetailsManager = new JdbcUserDetailsManager(dataSource);
 
         jdbcUserDetailsManager.setUsersByUsernameQuery(
@@ -39,7 +45,7 @@ public class UserDetailsConfig {
                 "update members set pw = ?, active = ? where user_id = ?"
         );
 
-        return jdbcUserDetailsManager;
+        return new CachingUserDetailsManager(jdbcUserDetailsManager, cacheTtl, cacheMaxSize, meterRegistry);
     }
 }
 
@@ -0,0 +1,157 @@
+package com.surge.backend.controller;
+
+import com.surge.backend.service.ImageDiskCache;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+// Stable image urls served from the local disk cache. The url of an object never changes and neither does the
+// object behind it, so clients may keep it forever.
+@RestController
+@RequestMapping("/api/images")
+@ConditionalOnProperty(name = "images.proxy.enabled", havingValue = "true")
+public class ImageController {
+    private static final String PATH_PREFIX = "/api/images/";
+
+    private final ImageDiskCache imageDiskCache;
+    private final String cacheControl;
+
+    public ImageController(ImageDiskCache imageDiskCache,
+                           @Value("${images.proxy.max-age-seconds:31536000}") long maxAgeSeconds) {
+        this.imageDiskCache = imageDiskCache;
+        this.cacheControl = "private, max-age=" + maxAgeSeconds + ", immutable";   // Private since image requests are authenticated
+    }
+
+    @GetMapping("/**")
+    public void getImage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String key = UriUtils.decode(path.substring(PATH_PREFIX.length()), StandardCharsets.UTF_8);
+        if (key.isBlank()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        ImageDiskCache.OpenImage image;
+        try {
+            image = imageDiskCache.open(key);
+        } catch (NoSuchElementException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        try (image) {
+            response.setHeader(HttpHeaders.ETAG, image.eTag());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+            if (matchesETag(request.getHeader(HttpHeaders.IF_NONE_MATCH), image.eTag())) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            long size = image.size();
+            long start = 0;
+            long end = size - 1;
+
+            // A range is only honoured when If-Range (if sent) still names this representation
+            String range = request.getHeader(HttpHeaders.RANGE);
+            String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+            if (range != null && (ifRange == null || ifRange.equals(image.eTag()))) {
+                long[] bounds = parseRange(range, size);
+                if (bounds == null) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                if (bounds.length == 2) {
+                    start = bounds[0];
+                    end = bounds[1];
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+                }
+            }
+
+            long length = end - start + 1;
+            response.setContentType(image.contentType());
+            response.setContentLengthLong(length);
+            if ("HEAD".equals(request.getMethod())) {
+                return;
+            }
+
+            // transferTo lets the kernel move the file pages instead of reading them through a heap buffer
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long written = image.channel().transferTo(position, remaining, out);
+                if (written <= 0) {
+                    break;
+                }
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Single "bytes=" ranges only. Returns {start, end}, an empty array to send the whole file
+    // (multiple ranges or a header we do not understand) or null when the range cannot be satisfied.
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.contains(",")) {
+            return new long[0];
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+
+            if (from.isEmpty()) {
+                // Suffix range, the last n bytes
+                long suffix = Long.parseLong(to);
+                if (suffix <= 0 || size == 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, size - suffix), size - 1};
+            }
+
+            long start = Long.parseLong(from);
+            long end = to.isEmpty() ? size - 1 : Math.min(Long.parseLong(to), size - 1);
+            if (start >= size || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
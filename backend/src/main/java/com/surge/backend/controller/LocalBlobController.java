@@ -0,0 +1,114 @@
+package com.surge.backend.controller;
+
+import com.surge.backend.service.LocalBlobStorage;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriUtils;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.NoSuchElementException;
+
+// The signed urls of LocalBlobStorage, standing in for the bucket's. The signature is the only check, like a
+// presigned S3 url these work without a login.
+@RestController
+@RequestMapping("/api/blobs")
+@ConditionalOnProperty(name = "storage.backend", havingValue = "local")
+public class LocalBlobController {
+    private static final String PATH_PREFIX = "/api/blobs/";
+    private static final String CHECKSUM_HEADER = "x-amz-checksum-sha256";
+
+    private final LocalBlobStorage localBlobStorage;
+
+    public LocalBlobController(LocalBlobStorage localBlobStorage) {
+        this.localBlobStorage = localBlobStorage;
+    }
+
+    @GetMapping("/**")
+    public void getBlob(@RequestParam(required = false, defaultValue = "0") long expires,
+                        @RequestParam(required = false) String signature,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String key = keyOf(request);
+        if (!localBlobStorage.isValidDownload(key, expires, signature)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        LocalBlobStorage.OpenBlob blob;
+        try {
+            blob = localBlobStorage.open(key);
+        } catch (NoSuchElementException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        try (blob) {
+            // The url stops working at expires, so the browser must not keep it longer
+            long maxAge = Math.max(0, expires - Instant.now().getEpochSecond());
+            response.setHeader(HttpHeaders.ETAG, blob.stored().eTag());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=" + maxAge);
+            if (blob.stored().eTag().equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            long size = blob.channel().size();
+            response.setContentType(blob.stored().contentType());
+            response.setContentLengthLong(size);
+            if ("HEAD".equals(request.getMethod())) {
+                return;
+            }
+
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            while (position < size) {
+                long written = blob.channel().transferTo(position, size - position, out);
+                if (written <= 0) {
+                    break;
+                }
+                position += written;
+            }
+        }
+    }
+
+    // Content-Type, Content-Length and x-amz-checksum-sha256 have to be the ones that were signed, as with a presigned
+    // PUT, and the body has to match the checksum
+    @PutMapping("/**")
+    public void putBlob(@RequestParam(required = false, defaultValue = "0") long expires,
+                        @RequestParam(required = false) String signature,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String key = keyOf(request);
+        String contentType = request.getContentType();
+        long contentLength = request.getContentLengthLong();
+        String checksum = request.getHeader(CHECKSUM_HEADER);
+        if (contentType == null || contentLength < 0 || checksum == null
+                || !localBlobStorage.isValidUpload(key, contentType, contentLength, checksum, expires, signature)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        try {
+            response.setHeader(HttpHeaders.ETAG, localBlobStorage.uploadStream(key, request.getInputStream(), contentType, contentLength, checksum).eTag());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static String keyOf(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return UriUtils.decode(path.substring(PATH_PREFIX.length()), StandardCharsets.UTF_8);
+    }
+}
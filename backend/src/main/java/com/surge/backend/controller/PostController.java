@@ -1,16 +1,24 @@
 package com.surge.backend.controller;
 
 import com.surge.backend.dto.CommentNewDto;
+import com.surge.backend.dto.CommentPageDto;
+import com.surge.backend.dto.PostFeedPageDto;
 import com.surge.backend.dto.PostNewDto;
+import com.surge.backend.dto.PostUploadFinalizeDto;
+import com.surge.backend.dto.PostUploadRequestDto;
+import com.surge.backend.dto.PostUploadUrlDto;
 import com.surge.backend.entity.Comment;
 import com.surge.backend.entity.Post;
+import com.surge.backend.security.CurrentMember;
 import com.surge.backend.service.PostService;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -23,81 +31,122 @@ public class PostController {
         this.postService = postService;
     }
 
+    // The full lists are written straight to the response as they are read instead of being buffered first
     @GetMapping
-    public ResponseEntity<?> getAllPosts() {
-        List<Map<String, Object>> posts = postService.getAllPosts();
-        return ResponseEntity.ok(posts);
+    public void getAllPosts(CurrentMember member, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        postService.writeAllPosts(member, response.getOutputStream());
+    }
+
+    @GetMapping("/feed")
+    public ResponseEntity<?> getFeedPage(CurrentMember member, @RequestParam(required = false) String cursor,
+                                         @RequestParam(required = false) Integer size) {
+        PostFeedPageDto page = postService.getFeedPage(member, cursor, size);
+        return ResponseEntity.ok(page);
     }
 
     @PostMapping
-    public ResponseEntity<?> addPost(@Valid @ModelAttribute PostNewDto dto) {
-        Post newPost = postService.addPost(dto);
+    public ResponseEntity<?> addPost(CurrentMember member, @Valid @ModelAttribute PostNewDto dto) {
+        Post newPost = postService.addPost(member, dto);
         return ResponseEntity.ok(Map.of(
                 "message", "Successfully added Post!"
         ));
     }
 
+    // Direct upload: the client PUTs the image to the returned url, then finalizes it into a post
+    @PostMapping("/uploads")
+    public ResponseEntity<?> requestUpload(CurrentMember member, @Valid @RequestBody PostUploadRequestDto dto) {
+        PostUploadUrlDto upload = postService.requestUpload(member, dto);
+        return ResponseEntity.ok(upload);
+    }
+
+    @PostMapping("/uploads/finalize")
+    public ResponseEntity<?> finalizeUpload(CurrentMember member, @Valid @RequestBody PostUploadFinalizeDto dto) {
+        Post newPost = postService.finalizeUpload(member, dto);
+        return ResponseEntity.ok(Map.of(
+                "message", "Successfully added Post!",
+                "id", newPost.getId()
+        ));
+    }
+
     @PutMapping("/{id}")
-    public ResponseEntity<?> updateCaption(@PathVariable Long id, @RequestBody Map<String, String> request){
-        Post updatedPost = postService.updateCaption(id, request.get("caption"));
+    public ResponseEntity<?> updateCaption(CurrentMember member, @PathVariable Long id, @RequestBody Map<String, String> request){
+        Post updatedPost = postService.updateCaption(member, id, request.get("caption"));
         return ResponseEntity.ok(updatedPost);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> deletePost(@PathVariable Long id) {
-        postService.deletePost(id);
+    public ResponseEntity<?> deletePost(CurrentMember member, @PathVariable Long id) {
+        postService.deletePost(member, id);
         return ResponseEntity.ok(Map.of(
                 "message", "Successfully deleted Post!"
         ));
     }
 
     @GetMapping("/comments/all/{postId}")
-    public ResponseEntity<?> getComments(@PathVariable Long postId) {
-        Map<String, Object> comments = postService.getAllCommentsForPost(postId);
+    public ResponseEntity<?> getComments(@PathVariable Long postId,
+                                         @RequestParam(required = false) Integer maxDepth) {
+        Map<String, Object> comments = postService.getAllCommentsForPost(postId, maxDepth);
         return ResponseEntity.ok(comments);
     }
 
+    @GetMapping("/comments/page/{postId}")
+    public ResponseEntity<?> getCommentsPage(@PathVariable Long postId,
+                                             @RequestParam(required = false) String cursor,
+                                             @RequestParam(required = false) Integer size) {
+        CommentPageDto page = postService.getCommentsPage(postId, cursor, size);
+        return ResponseEntity.ok(page);
+    }
+
+    @GetMapping("/comments/replies/{commentId}")
+    public ResponseEntity<?> getRepliesPage(@PathVariable Long commentId,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer size) {
+        CommentPageDto page = postService.getRepliesPage(commentId, cursor, size);
+        return ResponseEntity.ok(page);
+    }
+
     @PostMapping("/comments/add/{postId}")
-    public ResponseEntity<?> addComment(@PathVariable Long postId,
+    public ResponseEntity<?> addComment(CurrentMember member, @PathVariable Long postId,
                                         @Valid @RequestBody CommentNewDto dto) {
-        Comment newComment = postService.addComment(dto, postId);
+        Comment newComment = postService.addComment(member, dto, postId);
         return ResponseEntity.ok(Map.of(
                 "message", "Successfully added Comment!"
         ));
     }
 
     @DeleteMapping("/comments/{id}")
-    public ResponseEntity<?> deleteComment(@PathVariable Long id) {
-        postService.deleteComment(id);
+    public ResponseEntity<?> deleteComment(CurrentMember member, @PathVariable Long id) {
+        postService.deleteComment(member, id);
         return ResponseEntity.ok(Map.of(
                 "message", "Successfully deleted Comment!"
         ));
     }
 
     @PostMapping("/liked/toggle/{postId}")
-    public ResponseEntity<?> toggleLike(@PathVariable Long postId) {
-        Map<String, Object> response = postService.toggleLike(postId);
+    public ResponseEntity<?> toggleLike(CurrentMember member, @PathVariable Long postId) {
+        Map<String, Object> response = postService.toggleLike(member, postId);
         return ResponseEntity.ok(response);
     }
 
     @PostMapping("/saved/toggle/{postId}")
-    public ResponseEntity<?> toggleSave(@PathVariable Long postId) {
-        boolean isSaved = postService.toggleSave(postId);
+    public ResponseEntity<?> toggleSave(CurrentMember member, @PathVariable Long postId) {
+        boolean isSaved = postService.toggleSave(member, postId);
         return ResponseEntity.ok(Map.of(
                 "isNowSaved", isSaved
         ));
     }
 
     @GetMapping("/saved")
-    public ResponseEntity<?> getAllSavedPostsOfUser() {
-        List<Map<String, Object>> posts = postService.getAllSavedPostsOfUser();
-        return ResponseEntity.ok(posts);
+    public void getAllSavedPostsOfUser(CurrentMember member, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        postService.writeAllSavedPostsOfUser(member, response.getOutputStream());
     }
 
     @PostMapping("/me")
-    public ResponseEntity<?> getAllPostsOfUser(@RequestBody Map<String, String> request) {
-        List<Map<String, Object>> posts = postService.getAllPostsOfUser(request.get("username"));
-        return ResponseEntity.ok(posts);
+    public void getAllPostsOfUser(CurrentMember member, @RequestBody Map<String, String> request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        postService.writeAllPostsOfUser(member, request.get("username"), response.getOutputStream());
     }
 
 
@@ -2,8 +2,8 @@ package com.surge.backend.controller;
 
 import com.surge.backend.entity.Member;
 import com.surge.backend.service.MemberService;
-import com.surge.backend.service.S3Service;
 import com.surge.backend.util.TokenUtil;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.ValidationException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -20,28 +20,31 @@ import java.util.Map;
 public class UserController {
     private final MemberService memberService;
     private final TokenUtil jwtTokenUtil;
-    private final S3Service s3Service;
 
-    public UserController(MemberService memberService, TokenUtil jwtTokenUtil, S3Service s3Service) {
+    public UserController(MemberService memberService, TokenUtil jwtTokenUtil) {
         this.memberService = memberService;
         this.jwtTokenUtil = jwtTokenUtil;
-        this.s3Service = s3Service;
     }
 
     @GetMapping("/me")
-    public ResponseEntity<?> getUser() {
+    public ResponseEntity<?> getUser(HttpServletRequest request) {
         UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         Member user = memberService.getUser(currentUser.getUsername());
 
-        ResponseCookie jwtCookie = jwtTokenUtil.refreshToken(currentUser);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
 
-        return ResponseEntity
-                .ok()
-                .header(HttpHeaders.SET_COOKIE, jwtCookie.toString())
+        // Only sign a new token when the current one is about to run out, /me is polled far more often than that
+        TokenUtil.VerifiedToken token = (TokenUtil.VerifiedToken) request.getAttribute(TokenUtil.VERIFIED_TOKEN_ATTRIBUTE);
+        if (jwtTokenUtil.shouldRefresh(token)) {
+            ResponseCookie jwtCookie = jwtTokenUtil.refreshToken(currentUser);
+            response.header(HttpHeaders.SET_COOKIE, jwtCookie.toString());
+        }
+
+        return response
                 .body(Map.of(
                         "username", user.getUserId(),
                         "fullName", user.getFirstName() + " " + user.getLastName(),
-                        "profilePic", user.getFile() != null ? s3Service.generatePreSignedUrl(user.getFile()) : ""
+                        "profilePic", memberService.profilePhotoUrl(user)
                 ));
 
     }
@@ -0,0 +1,19 @@
+package com.surge.backend.dao;
+
+import com.surge.backend.entity.CleanupCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface CleanupCheckpointDao extends JpaRepository<CleanupCheckpoint, Long> {
+    Optional<CleanupCheckpoint> findByJobNameAndPrefix(String jobName, String prefix);
+
+    @Modifying
+    @Query("DELETE FROM CleanupCheckpoint c WHERE c.jobName = :jobName")
+    int deleteAllByJob(@Param("jobName") String jobName);
+}
@@ -1,16 +1,62 @@
 package com.surge.backend.dao;
 
+import com.surge.backend.dto.CommentItemDto;
+import com.surge.backend.dto.CommentRowDto;
 import com.surge.backend.entity.Comment;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface CommentDao extends JpaRepository<Comment, Long> {
-    List<Comment> findAllByPost_IdAndParentIsNullOrderByCreatedAtDesc(Long postId);
-    @Query("SELECT COALESCE(COUNT(*), 0) FROM Comment c WHERE c.post.id = :postId")
-    int getTotalCommentsForPost(@Param("postId") Long postId);
+
+    // Every comment of a post in one go (oldest first), covered by idx_comments_post_created
+    @Query("SELECT new com.surge.backend.dto.CommentRowDto(c.id, p.id, c.content, c.createdAt) " +
+            "FROM Comment c LEFT JOIN c.parent p WHERE c.post.id = :postId ORDER BY c.createdAt, c.id")
+    List<CommentRowDto> findRowsByPostId(@Param("postId") Long postId);
+
+    // Top level comments newest first, keyset paged on (createdAt, id) over idx_comments_top_level
+    @Query("SELECT new com.surge.backend.dto.CommentItemDto(c.id, c.user.userId, c.content, c.replyCount, c.createdAt) " +
+            "FROM Comment c WHERE c.post.id = :postId AND c.parent IS NULL " +
+            "ORDER BY c.createdAt DESC, c.id DESC")
+    List<CommentItemDto> findTopLevelFirstPage(@Param("postId") Long postId, Limit limit);
+
+    @Query("SELECT new com.surge.backend.dto.CommentItemDto(c.id, c.user.userId, c.content, c.replyCount, c.createdAt) " +
+            "FROM Comment c WHERE c.post.id = :postId AND c.parent IS NULL " +
+            "AND (c.createdAt, c.id) < (:createdAt, :id) " +
+            "ORDER BY c.createdAt DESC, c.id DESC")
+    List<CommentItemDto> findTopLevelAfter(@Param("postId") Long postId,
+                                           @Param("createdAt") LocalDateTime createdAt,
+                                           @Param("id") Long id,
+                                           Limit limit);
+
+    // Replies of one comment oldest first (conversation order), keyset paged over idx_comments_replies
+    @Query("SELECT new com.surge.backend.dto.CommentItemDto(c.id, c.user.userId, c.content, c.replyCount, c.createdAt) " +
+            "FROM Comment c WHERE c.parent.id = :parentId " +
+            "ORDER BY c.createdAt, c.id")
+    List<CommentItemDto> findRepliesFirstPage(@Param("parentId") Long parentId, Limit limit);
+
+    @Query("SELECT new com.surge.backend.dto.CommentItemDto(c.id, c.user.userId, c.content, c.replyCount, c.createdAt) " +
+            "FROM Comment c WHERE c.parent.id = :parentId " +
+            "AND (c.createdAt, c.id) > (:createdAt, :id) " +
+            "ORDER BY c.createdAt, c.id")
+    List<CommentItemDto> findRepliesAfter(@Param("parentId") Long parentId,
+                                          @Param("createdAt") LocalDateTime createdAt,
+                                          @Param("id") Long id,
+                                          Limit limit);
+
+    @Modifying
+    @Query("UPDATE Comment c SET c.replyCount = c.replyCount + :delta WHERE c.id = :commentId")
+    int adjustReplyCount(@Param("commentId") Long commentId, @Param("delta") int delta);
+
+    @Modifying
+    @Query("UPDATE Comment c SET c.replyCount = (SELECT COUNT(r) FROM Comment r WHERE r.parent = c) " +
+            "WHERE c.replyCount <> (SELECT COUNT(r) FROM Comment r WHERE r.parent = c)")
+    int reconcileReplyCounts();
 }
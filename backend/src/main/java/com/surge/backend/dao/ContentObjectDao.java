@@ -0,0 +1,49 @@
+package com.surge.backend.dao;
+
+import com.surge.backend.entity.ContentObject;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ContentObjectDao extends JpaRepository<ContentObject, String> {
+    Optional<ContentObject> findByObjectKey(String objectKey);
+
+    // Also row locks the content until the caller commits, see ContentObjectService.markVariantsReady
+    @Modifying
+    @Query("UPDATE ContentObject c SET c.refCount = c.refCount + 1, c.releasedAt = null WHERE c.objectKey = :objectKey")
+    int acquire(@Param("objectKey") String objectKey);
+
+    @Modifying
+    @Query("UPDATE ContentObject c SET c.refCount = c.refCount - 1 WHERE c.objectKey = :objectKey AND c.refCount > 0")
+    int release(@Param("objectKey") String objectKey);
+
+    // Starts the grace period of an unreferenced object, also pushes it back for one that is about to be reused
+    @Modifying
+    @Query("UPDATE ContentObject c SET c.releasedAt = :now WHERE c.objectKey = :objectKey AND c.refCount = 0")
+    int markReleased(@Param("objectKey") String objectKey, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE ContentObject c SET c.stored = true WHERE c.objectKey = :objectKey AND c.stored = false")
+    int markStored(@Param("objectKey") String objectKey);
+
+    @Modifying
+    @Query("UPDATE ContentObject c SET c.variantsReady = true WHERE c.objectKey = :objectKey")
+    int markVariantsReady(@Param("objectKey") String objectKey);
+
+    // Served by idx_content_objects_released
+    @Query("SELECT c.sha256 FROM ContentObject c WHERE c.refCount = 0 AND c.releasedAt < :before ORDER BY c.releasedAt")
+    List<String> findReleasedBefore(@Param("before") LocalDateTime before, Limit limit);
+
+    // Only while still unreferenced, a concurrent acquire keeps the row and its object
+    @Modifying
+    @Query("DELETE FROM ContentObject c WHERE c.sha256 = :sha256 AND c.refCount = 0 AND c.releasedAt < :before")
+    int deleteIfReleasedBefore(@Param("sha256") String sha256, @Param("before") LocalDateTime before);
+}
@@ -6,10 +6,14 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface LikeDao extends JpaRepository<Like, Long> {
     boolean existsByPost_IdAndUser_UserId(Long postId, String userId);
-    void deleteByPost_IdAndUser_UserId(Long postId, String userId);
-    @Query("SELECT COALESCE(COUNT(*), 0) FROM Like l WHERE l.post.id = :postId")
-    int getTotalLikesForPost(@Param("postId") Long postId);
+    long deleteByPost_IdAndUser_UserId(Long postId, String userId);
+
+    // Everything a user has liked, loaded once into PostMembershipIndex
+    @Query("SELECT l.post.id FROM Like l WHERE l.user.userId = :userId")
+    List<Long> findPostIdsLikedBy(@Param("userId") String userId);
 }
@@ -2,6 +2,9 @@ package com.surge.backend.dao;
 
 import com.surge.backend.entity.Member;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -10,4 +13,14 @@ import java.util.Optional;
 public interface MemberDao extends JpaRepository<Member, String> {
     Optional<Member> findByEmail(String email);
     boolean existsByEmail(String email);
+
+    // Set once the profile photo uploaded at registration has reached the bucket
+    @Modifying
+    @Query("UPDATE Member m SET m.file = :file WHERE m.userId = :userId AND m.file IS NULL")
+    int updateFileIfUnset(@Param("userId") String userId, @Param("file") String file);
+
+    // Every member using this image as their photo. Served by idx_members_img_src.
+    @Modifying
+    @Query("UPDATE Member m SET m.photoVariantsReady = true WHERE m.file = :file AND m.photoVariantsReady = false")
+    int markPhotoVariantsReadyByFile(@Param("file") String file);
 }
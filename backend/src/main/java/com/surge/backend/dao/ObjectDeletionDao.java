@@ -0,0 +1,19 @@
+package com.surge.backend.dao;
+
+import com.surge.backend.entity.ObjectDeletion;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ObjectDeletionDao extends JpaRepository<ObjectDeletion, Long> {
+
+    // Oldest due first, served by idx_object_deletions_due
+    @Query("SELECT d FROM ObjectDeletion d WHERE d.nextAttemptAt <= :now ORDER BY d.nextAttemptAt, d.id")
+    List<ObjectDeletion> findDue(@Param("now") LocalDateTime now, Limit limit);
+}
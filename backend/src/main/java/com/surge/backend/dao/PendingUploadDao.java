@@ -0,0 +1,26 @@
+package com.surge.backend.dao;
+
+import com.surge.backend.entity.PendingUpload;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface PendingUploadDao extends JpaRepository<PendingUpload, String> {
+    // Row locked until the caller commits, so concurrent finalizes of one upload create a single post
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT u FROM PendingUpload u WHERE u.id = :id")
+    Optional<PendingUpload> findByIdForUpdate(@Param("id") String id);
+
+    // Served by idx_pending_uploads_created
+    @Modifying
+    @Query("DELETE FROM PendingUpload u WHERE u.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") LocalDateTime before);
+}
@@ -1,19 +1,107 @@
 package com.surge.backend.dao;
 
+import com.surge.backend.dto.PostFeedRowDto;
+import com.surge.backend.dto.PostRankDto;
 import com.surge.backend.entity.Post;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface PostDao extends JpaRepository<Post, Long> {
-    List<Post> findAllByUser_UserIdOrderByCreatedAtDesc(String userId);
     List<Post> findAllByOrderByCreatedAtDesc();
 
-    @Query("SELECT p FROM Post p LEFT JOIN p.likes l GROUP BY p ORDER BY COUNT(l) DESC, p.createdAt DESC")
-    List<Post> findAllOrderByLikesAndCreatedAt();
+    // Full list endpoints read through a forward-only cursor, rows are fetched from the driver this many at a time
+    String STREAM_FETCH_SIZE = "500";
 
-    List<Post> findAllBySaves_User_UserIdOrderBySaves_CreatedAtDesc(String userId);
+    // Ranked feed order is (likes, createdAt, id) descending, id keeps the order total so keyset paging is stable.
+    // All three are columns of posts and covered by idx_posts_feed_rank, so no aggregation happens here.
+    @Query("SELECT new com.surge.backend.dto.PostFeedRowDto(p.id, p.user.userId, p.file, p.caption, p.createdAt, p.likeCount, p.commentCount, p.variantsReady) " +
+            "FROM Post p WHERE p.status = com.surge.backend.entity.PostStatus.READY ORDER BY p.likeCount DESC, p.createdAt DESC, p.id DESC")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<PostFeedRowDto> streamFeedRowsOrderByLikesAndCreatedAt();
+
+    @Query("SELECT new com.surge.backend.dto.PostFeedRowDto(p.id, p.user.userId, p.file, p.caption, p.createdAt, p.likeCount, p.commentCount, p.variantsReady) " +
+            "FROM Post p WHERE p.status = com.surge.backend.entity.PostStatus.READY ORDER BY p.likeCount DESC, p.createdAt DESC, p.id DESC")
+    List<PostFeedRowDto> findFeedRowsFirstPage(Limit limit);
+
+    // Keyset page: everything ranked strictly after the cursor position
+    @Query("SELECT new com.surge.backend.dto.PostFeedRowDto(p.id, p.user.userId, p.file, p.caption, p.createdAt, p.likeCount, p.commentCount, p.variantsReady) " +
+            "FROM Post p WHERE p.status = com.surge.backend.entity.PostStatus.READY AND (p.likeCount, p.createdAt, p.id) < (:likeCount, :createdAt, :id) " +
+            "ORDER BY p.likeCount DESC, p.createdAt DESC, p.id DESC")
+    List<PostFeedRowDto> findFeedRowsAfter(@Param("likeCount") int likeCount,
+                                           @Param("createdAt") LocalDateTime createdAt,
+                                           @Param("id") Long id,
+                                           Limit limit);
+
+    // Rows for ids taken from the in-memory feed index, the caller restores the index order
+    @Query("SELECT new com.surge.backend.dto.PostFeedRowDto(p.id, p.user.userId, p.file, p.caption, p.createdAt, p.likeCount, p.commentCount, p.variantsReady) " +
+            "FROM Post p WHERE p.id IN :ids AND p.status = com.surge.backend.entity.PostStatus.READY")
+    List<PostFeedRowDto> findFeedRowsByIds(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT new com.surge.backend.dto.PostRankDto(p.id, p.likeCount, p.createdAt) FROM Post p WHERE p.status = com.surge.backend.entity.PostStatus.READY")
+    List<PostRankDto> findAllRanks();
+
+    @Query("SELECT new com.surge.backend.dto.PostFeedRowDto(p.id, p.user.userId, p.file, p.caption, p.createdAt, p.likeCount, p.commentCount, p.variantsReady) " +
+            "FROM Post p WHERE p.user.userId = :userId AND p.status = com.surge.backend.entity.PostStatus.READY ORDER BY p.createdAt DESC")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<PostFeedRowDto> streamFeedRowsByUser(@Param("userId") String userId);
+
+    @Query("SELECT new com.surge.backend.dto.PostFeedRowDto(p.id, p.user.userId, p.file, p.caption, p.createdAt, p.likeCount, p.commentCount, p.variantsReady) " +
+            "FROM Save s JOIN s.post p WHERE s.user.userId = :userId AND p.status = com.surge.backend.entity.PostStatus.READY ORDER BY s.createdAt DESC")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<PostFeedRowDto> streamFeedRowsSavedByUser(@Param("userId") String userId);
+
+    // Pending posts are excluded from every listing above until their image upload has finished
+    @Modifying
+    @Query("UPDATE Post p SET p.status = com.surge.backend.entity.PostStatus.READY " +
+            "WHERE p.id = :postId AND p.status = com.surge.backend.entity.PostStatus.PENDING")
+    int markReady(@Param("postId") Long postId);
+
+    // Every post showing this image, they all share its variants. Served by idx_posts_img_src.
+    @Modifying
+    @Query("UPDATE Post p SET p.variantsReady = true WHERE p.file = :file AND p.variantsReady = false")
+    int markVariantsReadyByFile(@Param("file") String file);
+
+    @Query("SELECT p.id FROM Post p WHERE p.status = com.surge.backend.entity.PostStatus.PENDING AND p.createdAt < :before")
+    List<Long> findPendingIdsCreatedBefore(@Param("before") LocalDateTime before, Limit limit);
+
+    // Comment counter maintenance, executed in the same transaction as the Comment insert or delete.
+    // like_count is written behind by LikeCounterService instead.
+    @Modifying
+    @Query("UPDATE Post p SET p.commentCount = p.commentCount + :delta WHERE p.id = :postId")
+    int adjustCommentCount(@Param("postId") Long postId, @Param("delta") int delta);
+
+    // Deleting a comment cascades to its whole reply subtree, so the post is recounted instead of decremented
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Post p SET p.commentCount = (SELECT COUNT(c) FROM Comment c WHERE c.post = p) WHERE p.id = :postId")
+    int recountComments(@Param("postId") Long postId);
+
+    // Like count drift candidates: the counter disagrees with the likes table and nobody liked the post since quietSince
+    @Query("SELECT p.id FROM Post p WHERE p.likeCount <> (SELECT COUNT(l) FROM Like l WHERE l.post = p) " +
+            "AND NOT EXISTS (SELECT l FROM Like l WHERE l.post = p AND l.createdAt >= :quietSince)")
+    List<Long> findLikeCountDriftIds(@Param("quietSince") LocalDateTime quietSince);
+
+    // Checks the quiet period again, a like committed since the candidates were found keeps its post out of the recount
+    @Modifying
+    @Query("UPDATE Post p SET p.likeCount = (SELECT COUNT(l) FROM Like l WHERE l.post = p) " +
+            "WHERE p.id IN :ids AND NOT EXISTS (SELECT l FROM Like l WHERE l.post = p AND l.createdAt >= :quietSince)")
+    int recountLikes(@Param("ids") Collection<Long> ids, @Param("quietSince") LocalDateTime quietSince);
+
+    // Drift repair, only touches rows whose counter disagrees with the comments table
+    @Modifying
+    @Query("UPDATE Post p SET p.commentCount = (SELECT COUNT(c) FROM Comment c WHERE c.post = p) " +
+            "WHERE p.commentCount <> (SELECT COUNT(c) FROM Comment c WHERE c.post = p)")
+    int reconcileCommentCounts();
 }
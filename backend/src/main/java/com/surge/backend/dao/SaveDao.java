@@ -2,10 +2,18 @@ package com.surge.backend.dao;
 
 import com.surge.backend.entity.Save;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface SaveDao extends JpaRepository<Save, Long> {
     boolean existsByPost_IdAndUser_UserId(Long postId, String userId);
     void deleteByPost_IdAndUser_UserId(Long postId, String userId);
+
+    // Everything a user has saved, loaded once into PostMembershipIndex
+    @Query("SELECT s.post.id FROM Save s WHERE s.user.userId = :userId")
+    List<Long> findPostIdsSavedBy(@Param("userId") String userId);
 }
@@ -0,0 +1,7 @@
+package com.surge.backend.dto;
+
+import java.time.LocalDateTime;
+
+// One comment of a paginated comment or reply list, its replies are fetched separately on demand
+public record CommentItemDto(Long id, String username, String text, int replyCount, LocalDateTime createdAt) {
+}
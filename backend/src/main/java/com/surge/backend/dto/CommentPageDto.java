@@ -0,0 +1,7 @@
+package com.surge.backend.dto;
+
+import java.util.List;
+
+// A page of top level comments or of replies, nextCursor is null on the last page
+public record CommentPageDto(List<CommentItemDto> comments, String nextCursor) {
+}
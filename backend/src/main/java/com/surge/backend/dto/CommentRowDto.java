@@ -0,0 +1,7 @@
+package com.surge.backend.dto;
+
+import java.time.LocalDateTime;
+
+// Flat comment row, parentId is null for top level comments. The reply tree is rebuilt from these in memory
+public record CommentRowDto(Long id, Long parentId, String content, LocalDateTime createdAt) {
+}
@@ -0,0 +1,75 @@
+package com.surge.backend.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+// One post as returned by the feed, profile and saved-post endpoints.
+// Serialized by a hand written serializer: fixed field order, pre-encoded field names and primitive counts,
+// no reflective property lookup or boxing per item.
+// img is the feed card sized image. thumbImg, the profile grid sized one, is only set (and only written) by the
+// profile and saved-post endpoints.
+@JsonSerialize(using = PostFeedItemDto.Serializer.class)
+public record PostFeedItemDto(long id,
+                              String username,
+                              int likeCount,
+                              String img,
+                              int commentCount,
+                              boolean isLiked,
+                              boolean isSaved,
+                              String caption,
+                              String date,
+                              String thumbImg) {
+
+    public static final class Serializer extends StdSerializer<PostFeedItemDto> {
+        private static final long serialVersionUID = 1L;
+
+        private static final SerializableString ID = new SerializedString("id");
+        private static final SerializableString USERNAME = new SerializedString("username");
+        private static final SerializableString LIKE_COUNT = new SerializedString("likeCount");
+        private static final SerializableString IMG = new SerializedString("img");
+        private static final SerializableString COMMENT_COUNT = new SerializedString("commentCount");
+        private static final SerializableString IS_LIKED = new SerializedString("isLiked");
+        private static final SerializableString IS_SAVED = new SerializedString("isSaved");
+        private static final SerializableString CAPTION = new SerializedString("caption");
+        private static final SerializableString DATE = new SerializedString("date");
+        private static final SerializableString THUMB_IMG = new SerializedString("thumbImg");
+
+        public Serializer() {
+            super(PostFeedItemDto.class);
+        }
+
+        @Override
+        public void serialize(PostFeedItemDto item, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(item);
+            gen.writeFieldName(ID);
+            gen.writeNumber(item.id());
+            gen.writeFieldName(USERNAME);
+            gen.writeString(item.username());
+            gen.writeFieldName(LIKE_COUNT);
+            gen.writeNumber(item.likeCount());
+            gen.writeFieldName(IMG);
+            gen.writeString(item.img());
+            gen.writeFieldName(COMMENT_COUNT);
+            gen.writeNumber(item.commentCount());
+            gen.writeFieldName(IS_LIKED);
+            gen.writeBoolean(item.isLiked());
+            gen.writeFieldName(IS_SAVED);
+            gen.writeBoolean(item.isSaved());
+            gen.writeFieldName(CAPTION);
+            gen.writeString(item.caption());
+            gen.writeFieldName(DATE);
+            gen.writeString(item.date());
+            if (item.thumbImg() != null) {
+                gen.writeFieldName(THUMB_IMG);
+                gen.writeString(item.thumbImg());
+            }
+            gen.writeEndObject();
+        }
+    }
+}
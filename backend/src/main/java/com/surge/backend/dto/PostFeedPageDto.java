@@ -0,0 +1,7 @@
+package com.surge.backend.dto;
+
+import java.util.List;
+
+// A page of the ranked feed, nextCursor is null on the last page
+public record PostFeedPageDto(List<PostFeedItemDto> posts, String nextCursor) {
+}
@@ -0,0 +1,8 @@
+package com.surge.backend.dto;
+
+import java.time.LocalDateTime;
+
+// Flat read-only projection of a post for the feed queries, avoids loading the Post/Member entity graph per row
+public record PostFeedRowDto(Long id, String username, String file, String caption, LocalDateTime createdAt,
+                             int likeCount, int commentCount, boolean variantsReady) {
+}
@@ -0,0 +1,7 @@
+package com.surge.backend.dto;
+
+import java.time.LocalDateTime;
+
+// Just the columns the ranked feed is ordered by, used to (re)build the in-memory feed index
+public record PostRankDto(Long id, int likeCount, LocalDateTime createdAt) {
+}
@@ -0,0 +1,35 @@
+package com.surge.backend.dto;
+
+import jakarta.validation.constraints.NotBlank;
+
+// Second phase of a direct upload, turns the uploaded object into a post. Safe to retry.
+public class PostUploadFinalizeDto {
+    @NotBlank(message = "The upload id is required")
+    private String uploadId;
+    @NotBlank(message = "The Caption for the post is required")
+    private String caption;
+
+    public PostUploadFinalizeDto() {
+    }
+
+    public PostUploadFinalizeDto(String uploadId, String caption) {
+        this.uploadId = uploadId;
+        this.caption = caption;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getCaption() {
+        return caption;
+    }
+
+    public void setCaption(String caption) {
+        this.caption = caption;
+    }
+}
@@ -0,0 +1,63 @@
+package com.surge.backend.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+
+// First phase of a direct upload, describes the image the client is about to PUT
+public class PostUploadRequestDto {
+    @NotBlank(message = "The file name is required")
+    private String fileName;
+    @NotBlank(message = "The content type is required")
+    private String contentType;
+    @NotNull(message = "The file size is required")
+    @Positive(message = "The file size must be positive")
+    private Long size;
+    // Hex SHA-256 of the image, identical images share one stored object
+    @NotBlank(message = "The SHA-256 of the file is required")
+    @Pattern(regexp = "^[0-9a-f]{64}$", message = "The SHA-256 must be 64 lowercase hex digits")
+    private String sha256;
+
+    public PostUploadRequestDto() {
+    }
+
+    public PostUploadRequestDto(String fileName, String contentType, Long size, String sha256) {
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+}
@@ -0,0 +1,9 @@
+package com.surge.backend.dto;
+
+import java.time.Instant;
+
+// The client PUTs the image to uploadUrl with exactly this Content-Type and Content-Length and checksumSha256 as its
+// x-amz-checksum-sha256 header, then finalizes uploadId. uploadUrl is null when the same image is already stored, the
+// client finalizes straight away then.
+public record PostUploadUrlDto(String uploadId, String key, String uploadUrl, String contentType, long size, String checksumSha256, Instant expiresAt) {
+}
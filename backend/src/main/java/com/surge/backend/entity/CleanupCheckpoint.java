@@ -0,0 +1,106 @@
+package com.surge.backend.entity;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+// Progress of one prefix of a bucket cleanup job. continuationToken is where the listing resumes, every page
+// before it has already been deleted.
+@Entity
+@Table(name = "cleanup_checkpoints",
+        uniqueConstraints = {
+        @UniqueConstraint(
+                name = "uq_cleanup_job_prefix",
+                columnNames = {"job_name", "prefix"}
+        )
+})
+public class CleanupCheckpoint {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "job_name", nullable = false, length = 100)
+    private String jobName;
+
+    @Column(name = "prefix", nullable = false, length = 1024)
+    private String prefix;
+
+    @Column(name = "continuation_token", length = 2048)
+    private String continuationToken;
+
+    @Column(name = "deleted_count", nullable = false)
+    private long deletedCount;
+
+    @Column(name = "completed", nullable = false)
+    private boolean completed;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    public CleanupCheckpoint() {
+    }
+
+    public CleanupCheckpoint(String jobName, String prefix) {
+        this.jobName = jobName;
+        this.prefix = prefix;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
+    public long getDeletedCount() {
+        return deletedCount;
+    }
+
+    public void setDeletedCount(long deletedCount) {
+        this.deletedCount = deletedCount;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(boolean completed) {
+        this.completed = completed;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
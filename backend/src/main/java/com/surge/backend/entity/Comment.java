@@ -1,6 +1,7 @@
 package com.surge.backend.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
@@ -8,7 +9,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "comments")
+@Table(name = "comments",
+        indexes = {
+        @Index(name = "idx_comments_post_created", columnList = "post_id, created_at, id"),
+        @Index(name = "idx_comments_top_level", columnList = "post_id, parent_id, created_at DESC, id DESC"),
+        @Index(name = "idx_comments_replies", columnList = "parent_id, created_at, id")
+})
 public class Comment {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -37,6 +43,11 @@ public class Comment {
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
 
+    // Number of direct replies, only changed through the UPDATE queries in CommentDao like the counters on Post
+    @ColumnDefault("0")
+    @Column(name = "reply_count", nullable = false, updatable = false)
+    private int replyCount;
+
     public Comment() {
     }
 
@@ -104,4 +115,12 @@ public class Comment {
     public void setCreatedAt(LocalDateTime createdAt) {
         this.createdAt = createdAt;
     }
+
+    public int getReplyCount() {
+        return replyCount;
+    }
+
+    public void setReplyCount(int replyCount) {
+        this.replyCount = replyCount;
+    }
 }
\ No newline at end of file
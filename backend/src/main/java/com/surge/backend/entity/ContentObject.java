@@ -0,0 +1,117 @@
+package com.surge.backend.entity;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+// One stored image per distinct content, shared by every post and profile photo with the same SHA-256.
+// refCount counts the rows whose file is objectKey. Counts, flags and releasedAt are only changed through the
+// ContentObjectDao updates. A released object (refCount 0) is deleted by ContentObjectService after a grace period.
+@Entity
+@Table(name = "content_objects",
+        uniqueConstraints = {
+        @UniqueConstraint(
+                name = "uq_content_objects_key",
+                columnNames = {"object_key"}
+        )
+},
+        indexes = {
+        @Index(name = "idx_content_objects_released", columnList = "released_at")
+})
+public class ContentObject {
+    @Id
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    // Gets a fresh random suffix per content row, so a key is never reused once its object is queued for deletion
+    @Column(name = "object_key", nullable = false, length = 1024, updatable = false)
+    private String objectKey;
+
+    @ColumnDefault("0")
+    @Column(name = "ref_count", nullable = false, updatable = false)
+    private int refCount;
+
+    // Set once the object is known to be in storage, uploads of the same content are skipped from then on
+    @ColumnDefault("false")
+    @Column(name = "stored", nullable = false, updatable = false)
+    private boolean stored;
+
+    @ColumnDefault("false")
+    @Column(name = "variants_ready", nullable = false, updatable = false)
+    private boolean variantsReady;
+
+    // When refCount last dropped to 0, null while referenced
+    @Column(name = "released_at", updatable = false)
+    private LocalDateTime releasedAt;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    public ContentObject() {
+    }
+
+    public ContentObject(String sha256, String objectKey, LocalDateTime releasedAt) {
+        this.sha256 = sha256;
+        this.objectKey = objectKey;
+        this.releasedAt = releasedAt;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public void setObjectKey(String objectKey) {
+        this.objectKey = objectKey;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(int refCount) {
+        this.refCount = refCount;
+    }
+
+    public boolean isStored() {
+        return stored;
+    }
+
+    public void setStored(boolean stored) {
+        this.stored = stored;
+    }
+
+    public boolean isVariantsReady() {
+        return variantsReady;
+    }
+
+    public void setVariantsReady(boolean variantsReady) {
+        this.variantsReady = variantsReady;
+    }
+
+    public LocalDateTime getReleasedAt() {
+        return releasedAt;
+    }
+
+    public void setReleasedAt(LocalDateTime releasedAt) {
+        this.releasedAt = releasedAt;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -1,13 +1,17 @@
 package com.surge.backend.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "members")
+@Table(name = "members",
+        indexes = {
+        @Index(name = "idx_members_img_src", columnList = "img_src")
+})
 public class Member {
     @Id
     @Column(name = "user_id", length = 50)
@@ -23,6 +27,10 @@ public class Member {
     private String email;
     @Column(name = "img_src")
     private String file;
+    // Set by MemberDao.markPhotoVariantsReadyByFile once the ImageVariant copies of the photo are stored
+    @ColumnDefault("false")
+    @Column(name = "photo_variants_ready", nullable = false, updatable = false)
+    private boolean photoVariantsReady;
     @Column(name = "first_name")
     private String firstName;
     @Column(name = "last_name")
@@ -85,6 +93,14 @@ public class Member {
         this.file = file;
     }
 
+    public boolean isPhotoVariantsReady() {
+        return photoVariantsReady;
+    }
+
+    public void setPhotoVariantsReady(boolean photoVariantsReady) {
+        this.photoVariantsReady = photoVariantsReady;
+    }
+
     public String getFirstName() {
         return firstName;
     }
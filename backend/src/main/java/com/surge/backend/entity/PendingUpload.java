@@ -0,0 +1,84 @@
+package com.surge.backend.entity;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+// A direct upload handed out by PostService.requestUpload. Only the member who requested it may finalize it, and
+// postId makes the finalize idempotent: a retried finalize gets the post the first one created.
+@Entity
+@Table(name = "pending_uploads",
+        indexes = {
+        @Index(name = "idx_pending_uploads_created", columnList = "created_at")
+})
+public class PendingUpload {
+    // Random, the client only learns the ids of its own uploads
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+
+    @ManyToOne
+    @JoinColumn(name = "user_id", referencedColumnName = "user_id", nullable = false)
+    private Member user;
+
+    @Column(name = "object_key", nullable = false, length = 1024, updatable = false)
+    private String objectKey;
+
+    // The post created by the finalize, null until then
+    @Column(name = "post_id")
+    private Long postId;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    public PendingUpload() {
+    }
+
+    public PendingUpload(String id, Member user, String objectKey) {
+        this.id = id;
+        this.user = user;
+        this.objectKey = objectKey;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Member getUser() {
+        return user;
+    }
+
+    public void setUser(Member user) {
+        this.user = user;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public void setObjectKey(String objectKey) {
+        this.objectKey = objectKey;
+    }
+
+    public Long getPostId() {
+        return postId;
+    }
+
+    public void setPostId(Long postId) {
+        this.postId = postId;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -1,6 +1,7 @@
 package com.surge.backend.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
@@ -10,7 +11,11 @@ import java.util.List;
 import java.util.Set;
 
 @Entity
-@Table(name = "posts")
+@Table(name = "posts",
+        indexes = {
+        @Index(name = "idx_posts_feed_rank", columnList = "like_count DESC, created_at DESC, id DESC"),
+        @Index(name = "idx_posts_img_src", columnList = "img_src")
+})
 public class Post {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -30,6 +35,27 @@ public class Post {
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
 
+    // Denormalized counters, only ever changed through the atomic UPDATE queries in PostDao (never by entity flushes),
+    // so a stale entity being saved cannot overwrite concurrent increments
+    @ColumnDefault("0")
+    @Column(name = "like_count", nullable = false, updatable = false)
+    private int likeCount;
+
+    @ColumnDefault("0")
+    @Column(name = "comment_count", nullable = false, updatable = false)
+    private int commentCount;
+
+    // Only moved from PENDING to READY through PostDao.markReady
+    @Enumerated(EnumType.STRING)
+    @ColumnDefault("'READY'")
+    @Column(name = "status", nullable = false, length = 16, updatable = false)
+    private PostStatus status = PostStatus.READY;
+
+    // Set by PostDao.markVariantsReadyByFile once the ImageVariant copies of the image are stored, until then the original is served
+    @ColumnDefault("false")
+    @Column(name = "variants_ready", nullable = false, updatable = false)
+    private boolean variantsReady;
+
     @OneToMany(mappedBy = "post", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private List<Like> likes = new ArrayList<>();
 
@@ -93,6 +119,38 @@ public class Post {
         this.createdAt = createdAt;
     }
 
+    public int getLikeCount() {
+        return likeCount;
+    }
+
+    public void setLikeCount(int likeCount) {
+        this.likeCount = likeCount;
+    }
+
+    public int getCommentCount() {
+        return commentCount;
+    }
+
+    public void setCommentCount(int commentCount) {
+        this.commentCount = commentCount;
+    }
+
+    public PostStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(PostStatus status) {
+        this.status = status;
+    }
+
+    public boolean isVariantsReady() {
+        return variantsReady;
+    }
+
+    public void setVariantsReady(boolean variantsReady) {
+        this.variantsReady = variantsReady;
+    }
+
     public List<Like> getLikes() {
         return likes;
     }
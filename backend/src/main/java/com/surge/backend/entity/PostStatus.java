@@ -0,0 +1,7 @@
+package com.surge.backend.entity;
+
+// A post is PENDING from its insert until its image has reached the bucket, only READY posts are ever listed
+public enum PostStatus {
+    PENDING,
+    READY
+}
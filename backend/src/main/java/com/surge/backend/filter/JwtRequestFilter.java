@@ -41,11 +41,11 @@ public class JwtRequestFilter extends OncePerRequestFilter {
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
         String jwtToken = extractTokenFromCookie(request);
-        String username = null;
+        TokenUtil.VerifiedToken verifiedToken = null;
 
         if (jwtToken != null) {
             try {
-                username = jwtTokenUtil.getUsernameFromToken(jwtToken);
+                verifiedToken = jwtTokenUtil.verifyToken(jwtToken);   // The only parse of the token for this request
             } catch (IllegalArgumentException e) {
                 sendErrorResponse(response, HttpServletResponse.SC_UNAUTHORIZED, "Unable to get JWT Token");
                 return;
@@ -61,15 +61,16 @@ public class JwtRequestFilter extends OncePerRequestFilter {
             }
         }
 
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = this.userDetailsManager.loadUserByUsername(username);
+        if (verifiedToken != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            UserDetails userDetails = this.userDetailsManager.loadUserByUsername(verifiedToken.username());
 
-            if (jwtTokenUtil.validateToken(jwtToken, userDetails)) {
+            if (jwtTokenUtil.validateToken(verifiedToken, userDetails)) {
                 UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(
                         userDetails, null, userDetails.getAuthorities());
                 usernamePasswordAuthenticationToken
                         .setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(usernamePasswordAuthenticationToken);
+                request.setAttribute(TokenUtil.VERIFIED_TOKEN_ATTRIBUTE, verifiedToken);   // Lets /me decide on a refresh without parsing again
             }
         }
         chain.doFilter(request, response);
@@ -79,7 +80,6 @@ public class JwtRequestFilter extends OncePerRequestFilter {
         Cookie[] cookies = request.getCookies();
         if (cookies != null) {
             for (Cookie cookie : cookies) {
-                System.out.printf("Cookie Name: %s, Value: %s%n", cookie.getName(), cookie.getValue());
                 if (JWT_COOKIE_NAME.equals(cookie.getName())) {
                     return cookie.getValue();
                 }
@@ -0,0 +1,84 @@
+package com.surge.backend.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.surge.backend.util.TransactionHooks;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.provisioning.UserDetailsManager;
+
+import java.time.Duration;
+
+// Short lived cache in front of the JDBC user store, so authenticating a request normally costs no queries.
+// Every write goes through here and evicts the user, both right away and again once the surrounding transaction
+// commits, so a concurrent request cannot put the old row back in the cache before the change is visible.
+// It is also the UserDetailsPasswordService, which is how outdated password hashes get replaced after a successful login.
+public class CachingUserDetailsManager implements UserDetailsManager, UserDetailsPasswordService {
+    private final UserDetailsManager delegate;
+    private final Cache<String, UserDetails> cache;
+
+    public CachingUserDetailsManager(UserDetailsManager delegate, Duration ttl, long maxSize, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)  // Upper bound on how long a change made outside this app can go unnoticed
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "userDetails");
+    }
+
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        UserDetails cached = cache.get(username, delegate::loadUserByUsername);
+        // Authentication erases the password of the principal it was given, so callers never get the cached instance
+        return User.withUserDetails(cached).build();
+    }
+
+    @Override
+    public void createUser(UserDetails user) {
+        delegate.createUser(user);
+        evict(user.getUsername());
+    }
+
+    @Override
+    public void updateUser(UserDetails user) {
+        delegate.updateUser(user);
+        evict(user.getUsername());
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        delegate.deleteUser(username);
+        evict(username);
+    }
+
+    @Override
+    public void changePassword(String oldPassword, String newPassword) {
+        delegate.changePassword(oldPassword, newPassword);
+        evict(SecurityContextHolder.getContext().getAuthentication().getName());
+    }
+
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        UserDetails updated = User.withUserDetails(user)
+                .password(newPassword)
+                .build();
+        updateUser(updated);
+        return updated;
+    }
+
+    @Override
+    public boolean userExists(String username) {
+        return cache.getIfPresent(username) != null || delegate.userExists(username);
+    }
+
+    public void evict(String username) {
+        cache.invalidate(username);
+        TransactionHooks.afterCommit(() -> cache.invalidate(username));
+    }
+}
@@ -0,0 +1,6 @@
+package com.surge.backend.security;
+
+// Identity of the authenticated member for the current request, taken from the principal the JWT filter set up.
+// Services use it instead of loading the Member row, write paths only need a reference to it.
+public record CurrentMember(String userId) {
+}
@@ -0,0 +1,42 @@
+package com.surge.backend.security;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+// Lets controller methods declare a CurrentMember parameter, resolved from the security context once per request
+@Component
+public class CurrentMemberArgumentResolver implements HandlerMethodArgumentResolver {
+    private static final String REQUEST_ATTRIBUTE = CurrentMember.class.getName();
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return CurrentMember.class.equals(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        Object resolved = webRequest.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (resolved != null) {
+            return resolved;
+        }
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken) {
+            throw new AuthenticationCredentialsNotFoundException("No authenticated member for this request");
+        }
+
+        CurrentMember member = new CurrentMember(authentication.getName());
+        webRequest.setAttribute(REQUEST_ATTRIBUTE, member, RequestAttributes.SCOPE_REQUEST);
+        return member;
+    }
+}
@@ -0,0 +1,17 @@
+package com.surge.backend.security;
+
+// Thrown when the password hashing pool is saturated, answered with 429 and a Retry-After header
+public class PasswordHashingBusyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public PasswordHashingBusyException(long retryAfterSeconds) {
+        super("Too many login or registration attempts right now, please retry shortly");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,125 @@
+package com.surge.backend.service;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Where uploaded images are stored, picked with storage.backend: "s3" (S3Service, the default) or "local"
+// (LocalBlobStorage, files on this node's disk). Keys look the same for every backend, see contentKey.
+// Callers must not hold a database transaction while any of these run, they may all go over the network.
+public interface BlobStorage {
+    // Max keys deleteFiles accepts at once, the S3 DeleteObjects limit
+    int MAX_DELETE_BATCH_SIZE = 1000;
+
+    // Every uploaded image is stored below this, see contentKey
+    String CONTENT_PREFIX = "content/";
+
+    // What a download or HEAD request tells us about the object
+    record StoredObject(String contentType, String eTag, long contentLength) {
+    }
+
+    // A page of a listing, nextContinuationToken is null on the last page
+    record ObjectPage(List<String> keys, String nextContinuationToken) {
+    }
+
+    // A url the client PUTs the image to itself, only valid for the signed key, content type and length
+    record PresignedUpload(String url, Instant expiresAt) {
+    }
+
+    // The per user folders objects were stored in before keys became content addressed
+    enum ImageType {
+        PROFILE_PHOTO("profile-photos"),    // Will become: username/profile-photos/image.jpg
+        PROFILE_POSTS("profile-posts");     // Will become: username/profile-posts/image.jpg
+
+        private final String folder;
+
+        ImageType(String folder) {
+            this.folder = folder;
+        }
+
+        public String getFolder() {
+            return folder;
+        }
+    }
+
+    void uploadFile(String key, Path source, String contentType);
+
+    void uploadFile(String key, byte[] content, String contentType);
+
+    // Streams the object into target, which must not exist yet. NoSuchElementException when there is no such object.
+    StoredObject downloadFile(String key, Path target);
+
+    // Metadata of an object without downloading it, NoSuchElementException when there is no such object
+    StoredObject headFile(String key);
+
+    // Deleting a missing key is not an error
+    void deleteFileIfExists(String key);
+
+    // Up to MAX_DELETE_BATCH_SIZE keys at once, missing keys count as deleted. Returns key -> error for the keys that
+    // could not be deleted.
+    Map<String, String> deleteFiles(Collection<String> keys);
+
+    // One page of the objects under prefix in key order, continuationToken is null for the first page
+    ObjectPage listObjects(String prefix, String continuationToken);
+
+    // The "folders" directly below prefix, e.g. every user folder for an empty prefix. Each ends with a slash.
+    List<String> listChildPrefixes(String prefix);
+
+    // Url clients should load an image from
+    String getImageUrl(String objectKey);
+
+    // Key -> url for a whole page of objects in one call
+    Map<String, String> getImageUrls(Collection<String> objectKeys);
+
+    // Lets the client upload straight to storage. Content type, length and the SHA-256 of the content are part of the
+    // signature, the client sends the hash base64 encoded in an x-amz-checksum-sha256 header and storage rejects a body
+    // that does not match it.
+    PresignedUpload presignUpload(String key, String contentType, long contentLength, String sha256);
+
+    // Keys of uploaded images and their variants: content addressed, or in one of the legacy per user folders
+    static boolean isImageKey(String key) {
+        if (key == null || key.contains("//") || key.contains("..")) {
+            return false;
+        }
+        if (key.startsWith(CONTENT_PREFIX)) {
+            return key.length() > CONTENT_PREFIX.length();
+        }
+        int slash = key.indexOf('/');
+        if (slash <= 0) {
+            return false;
+        }
+        for (ImageType imageType : ImageType.values()) {
+            String folder = imageType.getFolder() + "/";
+            if (key.startsWith(folder, slash + 1) && key.length() > slash + 1 + folder.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The x-amz-checksum-sha256 form of a hex SHA-256
+    static String checksumSha256(String sha256) {
+        return Base64.getEncoder().encodeToString(HexFormat.of().parseHex(sha256));
+    }
+
+    // Validates an image and picks the key its content is stored under: content/<first two hex digits>/<sha256>_<random>.
+    // The hash prefix spreads the objects over the bucket's partitions, the random suffix makes the key of a content
+    // that was deleted and uploaded again differ from the one still queued for deletion.
+    default String contentKey(String sha256, String contentType) {
+        if (sha256 == null || !sha256.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("SHA-256 must be 64 lowercase hex digits");
+        }
+
+        // Image validation
+        if (contentType == null || !contentType.startsWith("image/")) {
+            throw new IllegalArgumentException("File must be an image");
+        }
+
+        return CONTENT_PREFIX + sha256.substring(0, 2) + "/" + sha256 + "_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
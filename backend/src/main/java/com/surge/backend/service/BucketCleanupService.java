@@ -0,0 +1,232 @@
+package com.surge.backend.service;
+
+import com.surge.backend.dao.CleanupCheckpointDao;
+import com.surge.backend.entity.CleanupCheckpoint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bulk deletion of whole prefixes of the bucket.
+// Every prefix is its own partition, listed with its own continuation token, so up to `parallelism` partitions run
+// side by side instead of one listing of the whole bucket. Within a partition the next page is listed while the
+// previous one is being deleted, with at most one DeleteObjects request in flight per partition.
+// After every deleted page the partition's continuation token is checkpointed, a job that failed or was interrupted
+// picks up where it stopped when it is run again under the same name. The checkpoints are dropped once the job
+// has finished.
+@Service
+public class BucketCleanupService {
+    private static final Logger logger = LoggerFactory.getLogger(BucketCleanupService.class);
+
+    static final String IMAGE_FOLDERS_JOB = "image-folders";
+
+    private final BlobStorage blobStorage;
+    private final CleanupCheckpointDao checkpointDao;
+    private final ObjectDeletionOutbox objectDeletionOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final int parallelism;
+    private final Duration progressInterval;
+
+    private final Timer cleanupTimer;
+    private final Counter deletedCounter;
+    private final Counter failedCounter;
+
+    public record CleanupReport(int partitions, long deleted, long failed, Duration elapsed) {
+    }
+
+    public BucketCleanupService(BlobStorage blobStorage,
+                                CleanupCheckpointDao checkpointDao,
+                                ObjectDeletionOutbox objectDeletionOutbox,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${storage.cleanup.parallelism:8}") int parallelism,
+                                @Value("${storage.cleanup.progress-interval:10s}") Duration progressInterval,
+                                MeterRegistry meterRegistry) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("storage.cleanup.parallelism must be at least 1");
+        }
+        this.blobStorage = blobStorage;
+        this.checkpointDao = checkpointDao;
+        this.objectDeletionOutbox = objectDeletionOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.parallelism = parallelism;
+        this.progressInterval = progressInterval;
+
+        this.cleanupTimer = Timer.builder("storage.cleanup")
+                .register(meterRegistry);
+        this.deletedCounter = Counter.builder("storage.cleanup.objects").tag("result", "deleted").register(meterRegistry);
+        this.failedCounter = Counter.builder("storage.cleanup.objects").tag("result", "failed").register(meterRegistry);
+    }
+
+    // Deletes every image folder of every user, i.e. each username/<ImageType folder>/ prefix. Content addressed
+    // objects are left alone, they are only ever deleted once ContentObjectService has released them.
+    public CleanupReport cleanupBucketFolders() {
+        List<String> prefixes = new ArrayList<>();
+        for (String userPrefix : blobStorage.listChildPrefixes("")) {
+            if (userPrefix.equals(BlobStorage.CONTENT_PREFIX)) {
+                continue;
+            }
+            for (BlobStorage.ImageType imageType : BlobStorage.ImageType.values()) {
+                prefixes.add(userPrefix + imageType.getFolder() + "/");
+            }
+        }
+        return cleanup(IMAGE_FOLDERS_JOB, prefixes);
+    }
+
+    // Deletes everything under the given prefixes. Throws when a partition failed, its checkpoint is kept so the
+    // next run with the same jobName resumes it (finished partitions are skipped).
+    public CleanupReport cleanup(String jobName, List<String> prefixes) {
+        long started = System.nanoTime();
+        AtomicLong deleted = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+
+        ThreadPoolExecutor listers = newPool("bucket-cleanup-", parallelism);
+        ThreadPoolExecutor deleters = newPool("bucket-cleanup-delete-", parallelism);
+        try {
+            List<Future<?>> partitions = new ArrayList<>(prefixes.size());
+            for (String prefix : prefixes) {
+                partitions.add(listers.submit(() -> {
+                    cleanupPartition(jobName, prefix, deleters, deleted, failed);
+                    return null;
+                }));
+            }
+
+            RuntimeException failure = null;
+            for (Future<?> partition : partitions) {
+                try {
+                    awaitWithProgress(jobName, partition, started, deleted);
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new IllegalStateException("Cleanup job " + jobName + " failed, it resumes on the next run", e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cleanup job " + jobName + " was interrupted, it resumes on the next run", e);
+        } finally {
+            listers.shutdownNow();
+            deleters.shutdownNow();
+            cleanupTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+
+        transactionTemplate.executeWithoutResult(status -> checkpointDao.deleteAllByJob(jobName));
+
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+        logger.info("Cleanup job {} deleted {} objects under {} prefixes in {} ({} objects/s), {} deletions left to the outbox",
+                jobName, deleted.get(), prefixes.size(), elapsed, throughput(deleted.get(), elapsed), failed.get());
+        return new CleanupReport(prefixes.size(), deleted.get(), failed.get(), elapsed);
+    }
+
+    private void cleanupPartition(String jobName, String prefix, ExecutorService deleters, AtomicLong deleted, AtomicLong failed)
+            throws ExecutionException, InterruptedException {
+        CleanupCheckpoint checkpoint = transactionTemplate.execute(status -> checkpointDao.findByJobNameAndPrefix(jobName, prefix)
+                .orElseGet(() -> checkpointDao.save(new CleanupCheckpoint(jobName, prefix))));
+        if (checkpoint.isCompleted()) {
+            return;
+        }
+
+        String token = checkpoint.getContinuationToken();
+        Future<Map<String, String>> inFlight = null;
+        int inFlightSize = 0;
+        do {
+            // Listing after a token only depends on the key it points at, so it does not need the previous page to be gone
+            BlobStorage.ObjectPage page = blobStorage.listObjects(prefix, token);
+
+            if (inFlight != null) {
+                // Everything before this page is deleted now, a resumed run lists it again
+                checkpoint = finishBatch(checkpoint, inFlight.get(), inFlightSize, token, deleted, failed);
+            }
+
+            List<String> keys = page.keys();
+            inFlight = keys.isEmpty() ? null : deleters.submit(() -> blobStorage.deleteFiles(keys));
+            inFlightSize = keys.size();
+            token = page.nextContinuationToken();
+        } while (token != null);
+
+        if (inFlight != null) {
+            checkpoint = finishBatch(checkpoint, inFlight.get(), inFlightSize, null, deleted, failed);
+        }
+        checkpoint.setCompleted(true);
+        CleanupCheckpoint finished = checkpoint;
+        transactionTemplate.executeWithoutResult(status -> checkpointDao.save(finished));
+    }
+
+    // Keys storage refused are handed to the deletion outbox so they are retried, the partition moves on
+    private CleanupCheckpoint finishBatch(CleanupCheckpoint checkpoint, Map<String, String> errors, int batchSize, String nextToken,
+                                          AtomicLong deleted, AtomicLong failed) {
+        int deletedInBatch = batchSize - errors.size();
+        checkpoint.setContinuationToken(nextToken);
+        checkpoint.setDeletedCount(checkpoint.getDeletedCount() + deletedInBatch);
+
+        CleanupCheckpoint saved = transactionTemplate.execute(status -> {
+            if (!errors.isEmpty()) {
+                objectDeletionOutbox.enqueue(errors.keySet());
+            }
+            return checkpointDao.save(checkpoint);
+        });
+
+        deleted.addAndGet(deletedInBatch);
+        failed.addAndGet(errors.size());
+        deletedCounter.increment(deletedInBatch);
+        failedCounter.increment(errors.size());
+        if (!errors.isEmpty()) {
+            logger.warn("{} objects under {} could not be deleted, queued for retry", errors.size(), checkpoint.getPrefix());
+        }
+        return saved != null ? saved : checkpoint;
+    }
+
+    private void awaitWithProgress(String jobName, Future<?> partition, long started, AtomicLong deleted)
+            throws ExecutionException, InterruptedException {
+        while (true) {
+            try {
+                partition.get(progressInterval.toMillis(), TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+                logger.info("Cleanup job {}: {} objects deleted in {} ({} objects/s)",
+                        jobName, deleted.get(), elapsed, throughput(deleted.get(), elapsed));
+            }
+        }
+    }
+
+    private static long throughput(long deleted, Duration elapsed) {
+        long millis = Math.max(1, elapsed.toMillis());
+        return deleted * 1000 / millis;
+    }
+
+    // One pool per run, the job is rare and its threads should not outlive it
+    private static ThreadPoolExecutor newPool(String namePrefix, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
@@ -0,0 +1,162 @@
+package com.surge.backend.service;
+
+import com.surge.backend.dao.ContentObjectDao;
+import com.surge.backend.dao.MemberDao;
+import com.surge.backend.dao.PostDao;
+import com.surge.backend.entity.ContentObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Deduplicates uploads by content. Every distinct image (by SHA-256) is stored once under its content key and
+// reference counted across posts and profile photos: a row pointing at the key holds one reference, taken in the
+// transaction that writes the row and released in the one that deletes it.
+// An object whose last reference is gone is kept for a grace period, so deleting and re-posting an image does not
+// upload it again, and is then handed to the deletion outbox together with its variants. Its content row goes in
+// the same transaction, the next upload of that content gets a new key (see BlobStorage.contentKey), so a queued
+// deletion can never hit an object that is referenced again.
+@Service
+public class ContentObjectService {
+    private static final Logger logger = LoggerFactory.getLogger(ContentObjectService.class);
+    private static final int SWEEP_BATCH_SIZE = 500;
+
+    private final ContentObjectDao contentObjectDao;
+    private final PostDao postDao;
+    private final MemberDao memberDao;
+    private final BlobStorage blobStorage;
+    private final ObjectDeletionOutbox objectDeletionOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration releaseGrace;
+
+    private final Counter deduplicated;
+
+    public ContentObjectService(ContentObjectDao contentObjectDao,
+                                PostDao postDao,
+                                MemberDao memberDao,
+                                BlobStorage blobStorage,
+                                ObjectDeletionOutbox objectDeletionOutbox,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${storage.content.release-grace:1h}") Duration releaseGrace,
+                                MeterRegistry meterRegistry) {
+        this.contentObjectDao = contentObjectDao;
+        this.postDao = postDao;
+        this.memberDao = memberDao;
+        this.blobStorage = blobStorage;
+        this.objectDeletionOutbox = objectDeletionOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.releaseGrace = releaseGrace;
+
+        this.deduplicated = Counter.builder("storage.content.deduplicated")
+                .register(meterRegistry);
+    }
+
+    // The key the content with this hash is stored under, call before the transaction that acquires it.
+    // New content gets a row without references, which the sweep removes after the grace period unless it is acquired.
+    public String register(String sha256, String contentType) {
+        String newKey = blobStorage.contentKey(sha256, contentType);   // Validates both, even when the content is known
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> {
+                    ContentObject existing = contentObjectDao.findById(sha256).orElse(null);
+                    if (existing != null) {
+                        deduplicated.increment();
+                        contentObjectDao.markReleased(existing.getObjectKey(), LocalDateTime.now());   // Keeps the sweep off it until it is acquired
+                        return existing.getObjectKey();
+                    }
+                    return contentObjectDao.saveAndFlush(new ContentObject(sha256, newKey, LocalDateTime.now())).getObjectKey();
+                });
+            } catch (DataIntegrityViolationException e) {
+                // The same content was registered concurrently, the next attempt finds that row
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Takes a reference for a row that is being written in the caller's transaction. Returns the content with its
+    // flags as of now, its row stays locked until the caller commits.
+    @Transactional(propagation = Propagation.MANDATORY)
+    public ContentObject acquire(String objectKey) {
+        if (contentObjectDao.acquire(objectKey) != 1) {
+            throw new NoSuchElementException("Could not find content with key: " + objectKey);
+        }
+        return contentObjectDao.findByObjectKey(objectKey).orElseThrow();
+    }
+
+    // Drops the reference of a row deleted in the caller's transaction. False when objectKey is not content addressed
+    // (stored before deduplication), the caller deletes such objects itself.
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean release(String objectKey) {
+        if (contentObjectDao.release(objectKey) == 1) {
+            contentObjectDao.markReleased(objectKey, LocalDateTime.now());   // Only matches when that was the last reference
+            return true;
+        }
+        return contentObjectDao.findByObjectKey(objectKey).isPresent();
+    }
+
+    public ContentObject find(String objectKey) {
+        return contentObjectDao.findByObjectKey(objectKey).orElseThrow(() -> new NoSuchElementException("Could not find content with key: " + objectKey));
+    }
+
+    // The object is in storage, later uploads of this content are skipped
+    public void markStored(String objectKey) {
+        transactionTemplate.executeWithoutResult(status -> contentObjectDao.markStored(objectKey));
+    }
+
+    // The variants are in storage, for every post and photo showing this content.
+    // The content row is updated first: a row being attached to it holds that row lock (see acquire), so the updates
+    // below either wait for it to commit and include it, or it is attached afterwards and sees variantsReady.
+    public void markVariantsReady(String objectKey) {
+        transactionTemplate.executeWithoutResult(status -> {
+            contentObjectDao.markVariantsReady(objectKey);
+            postDao.markVariantsReadyByFile(objectKey);
+            memberDao.markPhotoVariantsReadyByFile(objectKey);
+        });
+    }
+
+    // Content without references for longer than the grace period goes to the deletion outbox with its variants
+    @Scheduled(fixedDelayString = "${storage.content.sweep-interval-ms:600000}")
+    public void removeReleased() {
+        LocalDateTime before = LocalDateTime.now().minus(releaseGrace);
+        int found;
+        int removed = 0;
+        do {
+            List<String> keys = new ArrayList<>();
+            found = transactionTemplate.execute(status -> {
+                List<String> released = contentObjectDao.findReleasedBefore(before, Limit.of(SWEEP_BATCH_SIZE));
+                for (String sha256 : released) {
+                    ContentObject content = contentObjectDao.findById(sha256).orElse(null);
+                    if (content != null && contentObjectDao.deleteIfReleasedBefore(sha256, before) == 1) {
+                        keys.addAll(ImageVariant.keysWithVariants(content.getObjectKey()));
+                    }
+                }
+                if (!keys.isEmpty()) {
+                    objectDeletionOutbox.enqueue(keys);
+                }
+                return released.size();
+            });
+            removed += keys.size() / (ImageVariant.values().length + 1);
+        } while (found == SWEEP_BATCH_SIZE);
+
+        if (removed > 0) {
+            logger.info("Queued {} unreferenced images for deletion", removed);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.surge.backend.service;
+
+import com.surge.backend.dao.PostDao;
+import com.surge.backend.dto.PostRankDto;
+import com.surge.backend.util.FeedCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.OptionalInt;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// In-process index of post ids in ranked feed order (likes desc, createdAt desc, id desc).
+// Reading a page is a skip-list seek plus O(page) iteration, no database sort.
+// It is built from PostDao at startup, kept up to date by PostService after each committed write,
+// and rebuilt periodically so that writes handled by other instances are picked up as well.
+// Writes that arrive while a rebuild is scanning the database are applied to the live ranking and journaled, the
+// journal is replayed onto the fresh ranking before it is swapped in, so none of them are lost by the swap.
+// Like deltas are not journaled: the rebuild scans the persisted counts with this instance's flushes paused and adds
+// the unflushed deltas at the swap, which covers every delta handed over before it exactly once.
+@Service
+public class FeedRankIndex {
+    private static final Logger logger = LoggerFactory.getLogger(FeedRankIndex.class);
+
+    private final PostDao postDao;
+    private final LikeCounterService likeCounterService;
+    private final boolean enabled;
+
+    private volatile Ranking ranking = new Ranking();
+    private volatile boolean ready = false;
+
+    // Writes take the read side (they run concurrently), the swap at the end of a rebuild takes the write side
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private volatile Queue<Consumer<Ranking>> journal;   // Non-null while a rebuild is running
+
+    public FeedRankIndex(PostDao postDao, LikeCounterService likeCounterService, @Value("${feed.index.enabled:true}") boolean enabled) {
+        this.postDao = postDao;
+        this.likeCounterService = likeCounterService;
+        this.enabled = enabled;
+    }
+
+    // Sort key, likes in the high 32 bits and createdAt epoch seconds in the low 32 bits so the primary order is
+    // a single long comparison. The sub-second part of createdAt comes next, then the post id, which is the order
+    // of the SQL keyset path (likeCount, createdAt, id) so cursors carry over between the two.
+    public record RankKey(long score, int nanos, long postId) implements Comparable<RankKey> {
+
+        public static RankKey of(int likeCount, LocalDateTime createdAt, long postId) {
+            long seconds = createdAt.toEpochSecond(ZoneOffset.UTC);
+            return new RankKey(((long) likeCount << 32) | (seconds & 0xFFFFFFFFL), createdAt.getNano(), postId);
+        }
+
+        public int likeCount() {
+            return (int) (score >>> 32);
+        }
+
+        RankKey withLikeCount(int likeCount) {
+            return new RankKey(((long) likeCount << 32) | (score & 0xFFFFFFFFL), nanos, postId);
+        }
+
+        @Override
+        public int compareTo(RankKey other) {
+            int byScore = Long.compare(other.score, score);
+            if (byScore != 0) {
+                return byScore;
+            }
+            int byNanos = Integer.compare(other.nanos, nanos);
+            return byNanos != 0 ? byNanos : Long.compare(other.postId, postId);
+        }
+    }
+
+    private static final class Ranking {
+        private final ConcurrentSkipListSet<RankKey> ordered = new ConcurrentSkipListSet<>();
+        private final ConcurrentHashMap<Long, RankKey> byPostId = new ConcurrentHashMap<>();
+
+        void put(RankKey key) {
+            byPostId.compute(key.postId(), (id, previous) -> {
+                if (previous != null) {
+                    ordered.remove(previous);
+                }
+                ordered.add(key);
+                return key;
+            });
+        }
+
+        // Never re-inserts a post that was removed concurrently. Returns the new key, null when the post is not ranked.
+        RankKey adjustLikeCount(long postId, long delta) {
+            return byPostId.computeIfPresent(postId, (id, previous) -> {
+                RankKey key = previous.withLikeCount((int) Math.max(0, previous.likeCount() + delta));
+                ordered.remove(previous);
+                ordered.add(key);
+                return key;
+            });
+        }
+
+        void remove(long postId) {
+            byPostId.computeIfPresent(postId, (id, key) -> {
+                ordered.remove(key);
+                return null;
+            });
+        }
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${feed.index.rebuild-interval-ms:300000}",
+            initialDelayString = "${feed.index.rebuild-interval-ms:300000}")
+    public void scheduledRebuild() {
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    // Builds a fresh ranking off to the side and swaps it in, readers keep using the old one meanwhile
+    public synchronized void rebuild() {
+        Queue<Consumer<Ranking>> changes = new ConcurrentLinkedQueue<>();
+        journal = changes;
+        likeCounterService.pauseFlushes();
+        try {
+            Ranking fresh = new Ranking();
+            for (PostRankDto row : postDao.findAllRanks()) {
+                fresh.put(RankKey.of(row.likeCount(), row.createdAt(), row.id()));
+            }
+
+            replay(changes, fresh);   // Most of the journal, without holding up writers
+            swapLock.writeLock().lock();
+            try {
+                replay(changes, fresh);
+                likeCounterService.unflushed().forEach(fresh::adjustLikeCount);
+                ranking = fresh;
+                ready = true;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            logger.info("Feed index built with {} posts", fresh.byPostId.size());
+        } catch (RuntimeException e) {
+            // Keep serving the previous ranking (or the database path if there is none yet)
+            logger.error("Failed to build feed index", e);
+        } finally {
+            journal = null;
+            likeCounterService.resumeFlushes();
+        }
+    }
+
+    private static void replay(Queue<Consumer<Ranking>> changes, Ranking fresh) {
+        Consumer<Ranking> change;
+        while ((change = changes.poll()) != null) {
+            change.accept(fresh);
+        }
+    }
+
+    private void apply(Consumer<Ranking> change) {
+        swapLock.readLock().lock();
+        try {
+            change.accept(ranking);
+            Queue<Consumer<Ranking>> changes = journal;
+            if (changes != null) {
+                changes.add(change);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public void add(Long postId, int likeCount, LocalDateTime createdAt) {
+        if (postId == null || createdAt == null) {
+            return;
+        }
+        RankKey key = RankKey.of(likeCount, createdAt, postId);
+        apply(current -> current.put(key));
+    }
+
+    // Hands a committed like delta to the like counter and moves the post by it. Both happen under the read lock, so a
+    // rebuild sees the delta either among the unflushed ones at its swap or on the ranking it swaps out, never both.
+    // Returns the post's like count in the index, empty when the index does not rank it.
+    public OptionalInt adjustLikeCount(Long postId, int delta) {
+        swapLock.readLock().lock();
+        try {
+            likeCounterService.add(postId, delta);
+            RankKey key = ranking.adjustLikeCount(postId, delta);
+            return key == null ? OptionalInt.empty() : OptionalInt.of(key.likeCount());
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public void remove(Long postId) {
+        if (postId == null) {
+            return;
+        }
+        apply(current -> current.remove(postId));
+    }
+
+    // Keys of up to limit posts ranked strictly after the cursor (or from the top when cursor is null).
+    // A cursor continuing from one of them has to use its like count, which is what the post was ranked by.
+    public List<RankKey> page(FeedCursor after, int limit) {
+        Ranking current = ranking;
+        NavigableSet<RankKey> view = after == null
+                ? current.ordered
+                : current.ordered.tailSet(RankKey.of(after.likeCount(), after.createdAt(), after.id()), false);
+
+        List<RankKey> keys = new ArrayList<>(Math.min(limit, current.byPostId.size()));
+        Iterator<RankKey> iterator = view.iterator();
+        while (keys.size() < limit && iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        return keys;
+    }
+
+    // Walks the whole ranking lazily, the iterator is weakly consistent so concurrent likes and deletes never fail it
+    public Iterator<Long> ids() {
+        Iterator<RankKey> keys = ranking.ordered.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public Long next() {
+                return keys.next().postId();
+            }
+        };
+    }
+}
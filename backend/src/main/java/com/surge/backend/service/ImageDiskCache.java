@@ -0,0 +1,239 @@
+package com.surge.backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Size bounded local copy of images from the bucket, evicted least recently used first.
+// Objects never change under a key (every upload gets a new file name), so a cached file never goes stale.
+// Keys that are not in the bucket are remembered for a short while, so requests for made up keys do not each
+// turn into a GET against storage. Only briefly, since a key can still appear (e.g. variants being generated).
+@Service
+@ConditionalOnProperty(name = "images.proxy.enabled", havingValue = "true")
+public class ImageDiskCache {
+    private static final Logger logger = LoggerFactory.getLogger(ImageDiskCache.class);
+    private static final int MAX_MISSING_KEYS = 10_000;
+    private static final Pattern OWN_FILE = Pattern.compile("[0-9a-f]{64}|[0-9a-f-]{36}\\.download");   // See fileNameFor and fetch
+
+    private final BlobStorage blobStorage;
+    private final Path directory;
+    private final long maxBytes;
+
+    // Access ordered, so iteration starts at the least recently used image
+    private final LinkedHashMap<String, CachedImage> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    // One download per key, concurrent misses wait for it instead of fetching the same object again
+    private final ConcurrentHashMap<String, CompletableFuture<CachedImage>> downloads = new ConcurrentHashMap<>();
+
+    private final Cache<String, Boolean> missing;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter hits;
+    private final Counter misses;
+
+    public record CachedImage(Path file, long size, String eTag, String contentType) {
+    }
+
+    // An open handle stays readable even if the file gets evicted while it is being sent
+    public record OpenImage(FileChannel channel, long size, String eTag, String contentType) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public ImageDiskCache(BlobStorage blobStorage,
+                          @Value("${images.cache.dir:${java.io.tmpdir}/surge-image-cache}") String directory,
+                          @Value("${images.cache.max-bytes:1073741824}") long maxBytes,
+                          @Value("${images.cache.missing-ttl:30s}") Duration missingTtl,
+                          MeterRegistry meterRegistry) {
+        this.blobStorage = blobStorage;
+        this.directory = Path.of(directory);
+        this.maxBytes = maxBytes;
+        this.missing = Caffeine.newBuilder()
+                .maximumSize(MAX_MISSING_KEYS)
+                .expireAfterWrite(missingTtl)
+                .build();
+
+        this.meterRegistry = meterRegistry;
+        this.hits = Counter.builder("images.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("images.cache").tag("result", "miss").register(meterRegistry);
+    }
+
+    // The index only lives in memory, so whatever an earlier run left behind is cleared out.
+    // Only files this cache names are touched, anything else sharing the directory is left alone.
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory,
+                path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && OWN_FILE.matcher(path.getFileName().toString()).matches())) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+        // Registered here rather than in the constructor, so the registry never sees a partly constructed cache
+        Gauge.builder("images.cache.bytes", this, cache -> cache.currentBytes()).register(meterRegistry);
+    }
+
+    // NoSuchElementException when the key is not an image key or there is no such object
+    public OpenImage open(String key) throws IOException {
+        if (!BlobStorage.isImageKey(key)) {
+            throw new NoSuchElementException("Not an image: " + key);
+        }
+        CachedImage image = get(key);
+        try {
+            return new OpenImage(FileChannel.open(image.file(), StandardOpenOption.READ), image.size(), image.eTag(), image.contentType());
+        } catch (NoSuchFileException e) {
+            // Evicted between the lookup and the open, fetch it once more
+            remove(key, image);
+            image = get(key);
+            return new OpenImage(FileChannel.open(image.file(), StandardOpenOption.READ), image.size(), image.eTag(), image.contentType());
+        }
+    }
+
+    private CachedImage get(String key) {
+        synchronized (entries) {
+            CachedImage cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        if (missing.getIfPresent(key) != null) {
+            throw new NoSuchElementException("No such object: " + key);
+        }
+
+        CompletableFuture<CachedImage> download = new CompletableFuture<>();
+        CompletableFuture<CachedImage> running = downloads.putIfAbsent(key, download);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+            }
+        }
+
+        try {
+            misses.increment();
+            CachedImage image = fetch(key);
+            download.complete(image);
+            return image;
+        } catch (NoSuchElementException e) {
+            missing.put(key, Boolean.TRUE);
+            download.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            download.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(key, download);
+        }
+    }
+
+    private CachedImage fetch(String key) {
+        Path target = directory.resolve(fileNameFor(key));
+        Path temp = directory.resolve(UUID.randomUUID() + ".download");
+        try {
+            BlobStorage.StoredObject stored = blobStorage.downloadFile(key, temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            String eTag = stored.eTag() != null ? stored.eTag() : "\"" + fileNameFor(key) + "\"";
+            String contentType = stored.contentType() != null ? stored.contentType() : "application/octet-stream";
+            CachedImage image = new CachedImage(target, Files.size(target), eTag, contentType);
+
+            put(key, image);
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to cache image " + key, e);
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                logger.warn("Could not delete partial image download {}", temp, e);
+            }
+        }
+    }
+
+    private void put(String key, CachedImage image) {
+        synchronized (entries) {
+            CachedImage previous = entries.put(key, image);
+            if (previous != null) {
+                totalBytes -= previous.size();
+            }
+            totalBytes += image.size();
+
+            // Evict from the least recently used end, the image just added always stays
+            Iterator<Map.Entry<String, CachedImage>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, CachedImage> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                eldest.remove();
+                totalBytes -= entry.getValue().size();
+                deleteQuietly(entry.getValue().file());
+            }
+        }
+    }
+
+    private void remove(String key, CachedImage image) {
+        synchronized (entries) {
+            if (entries.remove(key, image)) {
+                totalBytes -= image.size();
+            }
+        }
+    }
+
+    public long currentBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete evicted image {}", file, e);
+        }
+    }
+
+    // Keys contain slashes and user supplied names, the file on disk is named after a digest instead
+    private static String fileNameFor(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.surge.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Uploads images to the bucket off the request's database transaction.
+// The multipart body is copied to a local temp file first (it is gone once the request ends), the row referencing the
+// image is committed as pending (or ready straight away when the same content is already stored), and the put runs on a small pool afterwards. When the queue is full the upload runs
+// on the submitting thread instead, which by then holds no transaction, so a slow bucket slows uploads down
+// rather than piling up temp files.
+@Service
+public class ImageUploadWorker {
+    private static final Logger logger = LoggerFactory.getLogger(ImageUploadWorker.class);
+
+    private final BlobStorage blobStorage;
+    private final ImageVariantGenerator variantGenerator;
+    private final ContentObjectService contentObjects;
+    private final ThreadPoolExecutor executor;
+
+    private final Timer uploadTimer;
+    private final Counter failures;
+
+    // An image copied to local disk, waiting to be put under key
+    public record StagedUpload(String key, Path file, String contentType) {
+    }
+
+    public ImageUploadWorker(BlobStorage blobStorage,
+                             ImageVariantGenerator variantGenerator,
+                             ContentObjectService contentObjects,
+                             @Value("${images.upload.threads:4}") int threads,
+                             @Value("${images.upload.queue-capacity:256}") int queueCapacity,
+                             MeterRegistry meterRegistry) {
+        this.blobStorage = blobStorage;
+        this.variantGenerator = variantGenerator;
+        this.contentObjects = contentObjects;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-upload-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        this.uploadTimer = Timer.builder("images.upload")
+                .register(meterRegistry);
+        this.failures = Counter.builder("images.upload.failures")
+                .register(meterRegistry);
+        Gauge.builder("images.upload.queue", executor, pool -> pool.getQueue().size())
+                .register(meterRegistry);
+    }
+
+    // Copies the image out of the request, hashing it on the way, and registers its content. Call before opening the
+    // transaction, which has to acquire upload.key(). When the content is already stored the upload is not submitted.
+    public StagedUpload stage(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("File cannot be empty");
+        }
+        try {
+            Path staged = Files.createTempFile("surge-upload-", ".tmp");
+            String sha256;
+            try (DigestInputStream in = new DigestInputStream(file.getInputStream(), MessageDigest.getInstance("SHA-256"))) {
+                Files.copy(in, staged, StandardCopyOption.REPLACE_EXISTING);
+                sha256 = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(staged);
+                throw e;
+            }
+
+            try {
+                return new StagedUpload(contentObjects.register(sha256, file.getContentType()), staged, file.getContentType());
+            } catch (RuntimeException e) {
+                Files.deleteIfExists(staged);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to stage upload " + file.getOriginalFilename(), e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Drops a staged upload that will never be submitted (e.g. its row failed to commit)
+    public void discard(StagedUpload upload) {
+        deleteStagedFile(upload.file());
+    }
+
+    // Submit only after the row that acquired upload.key() has committed.
+    // onUploaded runs once the object exists, onFailed when the put fails. onVariantsStored runs once the ImageVariant
+    // copies are in the bucket too. The object is shared with every other row showing the same content, so it is never
+    // deleted here: the rows release it and ContentObjectService removes it once nothing refers to it.
+    public void submit(StagedUpload upload, Runnable onUploaded, Runnable onVariantsStored, Runnable onFailed) {
+        executor.execute(() -> upload(upload, onUploaded, onVariantsStored, onFailed));
+    }
+
+    private void upload(StagedUpload upload, Runnable onUploaded, Runnable onVariantsStored, Runnable onFailed) {
+        try {
+            uploadTimer.record(() -> blobStorage.uploadFile(upload.key(), upload.file(), upload.contentType()));
+        } catch (RuntimeException e) {
+            failures.increment();
+            logger.error("Upload of {} failed", upload.key(), e);
+            deleteStagedFile(upload.file());
+            runQuietly(onFailed, upload.key());
+            return;
+        }
+
+        try {
+            onUploaded.run();
+        } catch (RuntimeException e) {
+            logger.error("Could not mark {} as uploaded", upload.key(), e);
+        }
+
+        // The staged copy is still on disk, so the variants are made from it instead of downloading the original
+        variantGenerator.submit(upload.file(), upload.key(), onVariantsStored);
+    }
+
+    // For objects that are already in the bucket (uploaded by the client, or content stored before): the image is
+    // downloaded once on this pool and handed to the variant generator like a staged upload
+    public void submitVariants(String key, Runnable onVariantsStored) {
+        executor.execute(() -> {
+            Path staged = Path.of(System.getProperty("java.io.tmpdir"), "surge-upload-" + UUID.randomUUID() + ".tmp");
+            try {
+                blobStorage.downloadFile(key, staged);
+            } catch (RuntimeException e) {
+                logger.warn("Could not download {} for its variants, serving the original", key, e);
+                deleteStagedFile(staged);
+                return;
+            }
+            variantGenerator.submit(staged, key, onVariantsStored);
+        });
+    }
+
+    private void runQuietly(Runnable action, String key) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            logger.error("Callback for the upload of {} failed", key, e);
+        }
+    }
+
+    private void deleteStagedFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete staged upload {}", file, e);
+        }
+    }
+
+    // Lets queued uploads finish so their rows do not stay pending until the sweep removes them
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("{} image uploads were still queued at shutdown", executor.getQueue().size());
+        }
+    }
+}
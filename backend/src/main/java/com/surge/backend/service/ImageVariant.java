@@ -0,0 +1,39 @@
+package com.surge.backend.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Downscaled copies generated for every uploaded image, stored beside the original:
+// content/3f/3f2a..._9c1e04b7 -> content/3f/variants/card/3f2a..._9c1e04b7
+// Ordered largest first, each variant is scaled down from the one before it.
+public enum ImageVariant {
+    CARD(1080),     // Feed cards and the opened post
+    THUMB(320);     // Profile grid and profile photos
+
+    private final int maxEdge;
+
+    ImageVariant(int maxEdge) {
+        this.maxEdge = maxEdge;
+    }
+
+    public int getMaxEdge() {
+        return maxEdge;
+    }
+
+    public String keyFor(String originalKey) {
+        int slash = originalKey.lastIndexOf('/');
+        String folder = originalKey.substring(0, slash + 1);
+        String fileName = originalKey.substring(slash + 1);
+        return folder + "variants/" + name().toLowerCase() + "/" + fileName;
+    }
+
+    // The original followed by every variant key, for deleting an image completely
+    public static List<String> keysWithVariants(String originalKey) {
+        List<String> keys = new ArrayList<>(values().length + 1);
+        keys.add(originalKey);
+        for (ImageVariant variant : values()) {
+            keys.add(variant.keyFor(originalKey));
+        }
+        return keys;
+    }
+}
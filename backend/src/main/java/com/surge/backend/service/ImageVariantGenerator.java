@@ -0,0 +1,317 @@
+package com.surge.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Produces the ImageVariant copies of an uploaded image and stores them beside the original.
+// The upload is decoded once (subsampled while decoding when it is far larger than CARD), turned upright according
+// to its EXIF orientation, every variant is scaled from the next larger one and re-encoded without any of the
+// original's metadata (EXIF, GPS, camera data), so browsers show the variants the same way round as the original.
+// Runs on its own small pool since decoding is CPU and memory heavy. When the queue is full the variants are
+// skipped, the original keeps being served for that image.
+@Service
+public class ImageVariantGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(ImageVariantGenerator.class);
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    private final BlobStorage blobStorage;
+    private final ThreadPoolExecutor executor;
+    private final float jpegQuality;
+    private final long maxPixels;
+
+    private final Timer generateTimer;
+    private final Counter skipped;
+
+    public record EncodedImage(byte[] content, String contentType, int width, int height) {
+    }
+
+    public ImageVariantGenerator(BlobStorage blobStorage,
+                                 @Value("${images.variants.threads:2}") int threads,
+                                 @Value("${images.variants.queue-capacity:64}") int queueCapacity,
+                                 @Value("${images.variants.jpeg-quality:0.82}") float jpegQuality,
+                                 @Value("${images.variants.max-pixels:100000000}") long maxPixels,
+                                 MeterRegistry meterRegistry) {
+        this.blobStorage = blobStorage;
+        this.jpegQuality = jpegQuality;
+        this.maxPixels = maxPixels;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-variants-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.generateTimer = Timer.builder("images.variants")
+                .register(meterRegistry);
+        this.skipped = Counter.builder("images.variants.skipped")
+                .register(meterRegistry);
+        Gauge.builder("images.variants.queue", executor, pool -> pool.getQueue().size())
+                .register(meterRegistry);
+    }
+
+    // Takes ownership of source and deletes it when done. onStored runs once every variant is in the bucket.
+    // Variants live and die with their original, ContentObjectService deletes them together.
+    public void submit(Path source, String originalKey, Runnable onStored) {
+        try {
+            executor.execute(() -> {
+                try {
+                    generateTimer.record(() -> generate(source, originalKey, onStored));
+                } finally {
+                    deleteSource(source);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            skipped.increment();
+            logger.warn("Variant queue is full, serving the original of {}", originalKey);
+            deleteSource(source);
+        }
+    }
+
+    private void generate(Path source, String originalKey, Runnable onStored) {
+        try {
+            for (Map.Entry<ImageVariant, EncodedImage> variant : encodeVariants(source).entrySet()) {
+                blobStorage.uploadFile(variant.getKey().keyFor(originalKey), variant.getValue().content(), variant.getValue().contentType());
+            }
+            onStored.run();
+        } catch (IOException | RuntimeException e) {
+            skipped.increment();
+            logger.warn("Could not generate variants of {}, serving the original", originalKey, e);
+        }
+    }
+
+    // Every variant, largest first. Images smaller than a variant are re-encoded at their own size, never upscaled.
+    public Map<ImageVariant, EncodedImage> encodeVariants(Path source) throws IOException {
+        BufferedImage decoded = decode(source);
+        boolean alpha = decoded.getColorModel().hasAlpha();
+        BufferedImage current = orient(decoded, readOrientation(source), alpha);
+
+        Map<ImageVariant, EncodedImage> variants = new EnumMap<>(ImageVariant.class);
+        for (ImageVariant variant : ImageVariant.values()) {
+            current = scaleToFit(current, variant.getMaxEdge(), alpha);
+            variants.put(variant, alpha
+                    ? new EncodedImage(encodePng(current), "image/png", current.getWidth(), current.getHeight())
+                    : new EncodedImage(encodeJpeg(current), "image/jpeg", current.getWidth(), current.getHeight()));
+        }
+        return variants;
+    }
+
+    private BufferedImage decode(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported image format");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);   // Metadata is never read, so it cannot end up in a variant
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new IllegalArgumentException("Image is too large: " + width + "x" + height);
+                }
+
+                // Skip pixels while decoding instead of holding the full resolution in memory, still leaving
+                // twice the largest variant for the scaling below
+                int step = Math.max(1, Math.max(width, height) / (2 * ImageVariant.CARD.getMaxEdge()));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // The EXIF Orientation (1-8) of a JPEG, 1 when it has none. The decoder skips all metadata, so the APP1 segment
+    // is read here directly, stopping at the start of the image data.
+    static int readOrientation(Path source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                return 1;   // Not a JPEG
+            }
+            while (true) {
+                int marker = in.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || marker == 0xFFD9) {
+                    return 1;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return 1;
+                }
+                if (marker == 0xFFE1) {
+                    int orientation = exifOrientation(in.readNBytes(length));
+                    if (orientation != 0) {
+                        return orientation;
+                    }
+                } else {
+                    in.skipNBytes(length);
+                }
+            }
+        } catch (EOFException e) {
+            return 1;
+        }
+    }
+
+    // Orientation tag of IFD0 in an APP1 segment, 0 when the segment is not EXIF or has no valid one
+    private static int exifOrientation(byte[] segment) {
+        if (segment.length < 14 || !new String(segment, 0, 6, StandardCharsets.ISO_8859_1).equals("Exif\0\0")) {
+            return 0;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+        switch (tiff.getShort(0)) {
+            case 0x4949 -> tiff.order(ByteOrder.LITTLE_ENDIAN);   // "II"
+            case 0x4D4D -> tiff.order(ByteOrder.BIG_ENDIAN);      // "MM"
+            default -> {
+                return 0;
+            }
+        }
+        try {
+            int ifd = tiff.getInt(4);
+            int entries = tiff.getShort(ifd) & 0xFFFF;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd + 2 + i * 12;
+                if ((tiff.getShort(entry) & 0xFFFF) == EXIF_ORIENTATION_TAG) {
+                    int orientation = tiff.getShort(entry + 8) & 0xFFFF;
+                    return orientation >= 1 && orientation <= 8 ? orientation : 0;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return 0;   // Truncated or corrupt, the image is used as stored
+        }
+        return 0;
+    }
+
+    // Rotates and/or mirrors the decoded pixels so they display upright without the orientation tag
+    private static BufferedImage orient(BufferedImage image, int orientation, boolean alpha) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, w, 0);    // Mirrored
+            case 3 -> new AffineTransform(-1, 0, 0, -1, w, h);   // Upside down
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, h);    // Mirrored upside down
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);     // Transposed
+            case 6 -> new AffineTransform(0, 1, -1, 0, h, 0);    // Rotated 90 clockwise
+            case 7 -> new AffineTransform(0, -1, -1, 0, h, w);   // Transversed
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, w);    // Rotated 90 counter clockwise
+            default -> null;
+        };
+        if (transform == null) {
+            return image;
+        }
+
+        boolean swapped = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(swapped ? h : w, swapped ? w : h,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = oriented.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return oriented;
+    }
+
+    private static BufferedImage scaleToFit(BufferedImage image, int maxEdge, boolean alpha) {
+        double scale = Math.min(1.0, (double) maxEdge / Math.max(image.getWidth(), image.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        // Bilinear on its own skips source pixels once the reduction is over 2x and aliases, so halve first
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = resize(current, current.getWidth() / 2, current.getHeight() / 2, alpha);
+        }
+        return resize(current, targetWidth, targetHeight, alpha);
+    }
+
+    // Also normalises the pixel type, JPEG needs plain RGB
+    private static BufferedImage resize(BufferedImage image, int width, int height, boolean alpha) {
+        BufferedImage resized = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private void deleteSource(Path source) {
+        try {
+            Files.deleteIfExists(source);
+        } catch (IOException e) {
+            logger.warn("Could not delete staged upload {}", source, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,132 @@
+package com.surge.backend.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Write-behind aggregation of posts.like_count.
+// Like/unlike deltas land in striped per-post LongAdders (no lock, no row contention however hot the post is)
+// and are written to the database as one JDBC batch per flush interval. Reads add the not yet flushed delta
+// on top of the persisted column. Like membership itself (the likes table) is still written synchronously.
+@Service
+public class LikeCounterService {
+    private static final Logger logger = LoggerFactory.getLogger(LikeCounterService.class);
+
+    private static final String FLUSH_SQL = "UPDATE posts SET like_count = like_count + ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<Long, Counter> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> inFlight = new ConcurrentHashMap<>();  // Drained but not yet committed
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public LikeCounterService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // A counter is retired when the flusher finds it idle and drops it from the map. A writer that raced with
+    // the retirement takes its delta back out of the retired counter and re-applies it to a live one,
+    // so no delta is ever lost and idle posts don't keep an entry forever.
+    private static final class Counter {
+        private final LongAdder delta = new LongAdder();
+        private volatile boolean retired = false;
+    }
+
+    public void add(Long postId, long delta) {
+        while (delta != 0) {
+            Counter counter = pending.computeIfAbsent(postId, id -> new Counter());
+            counter.delta.add(delta);
+            if (!counter.retired) {
+                return;
+            }
+            delta = counter.delta.sumThenReset();
+        }
+    }
+
+    // Per post delta that has not reached the database yet
+    public Map<Long, Long> unflushed() {
+        Map<Long, Long> deltas = new HashMap<>(inFlight);
+        pending.forEach((postId, counter) -> deltas.merge(postId, counter.delta.sum(), Long::sum));
+        deltas.values().removeIf(delta -> delta == 0);
+        return deltas;
+    }
+
+    // Holds off flushes, so this instance does not move deltas into posts.like_count meanwhile.
+    // Always paired with resumeFlushes in a finally block, on the same thread.
+    public void pauseFlushes() {
+        flushLock.lock();
+    }
+
+    public void resumeFlushes() {
+        flushLock.unlock();
+    }
+
+    // Persisted column value plus whatever has not reached the database yet
+    public int currentCount(Long postId, int persistedCount) {
+        long unflushed = inFlight.getOrDefault(postId, 0L);
+        Counter counter = pending.get(postId);
+        if (counter != null) {
+            unflushed += counter.delta.sum();
+        }
+        return (int) Math.max(0, persistedCount + unflushed);
+    }
+
+    @Scheduled(fixedDelayString = "${likes.counter.flush-interval-ms:1000}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Object[]> batch = new ArrayList<>();
+
+            for (Map.Entry<Long, Counter> entry : pending.entrySet()) {
+                Counter counter = entry.getValue();
+                long delta = counter.delta.sumThenReset();
+                if (delta == 0) {
+                    counter.retired = true;
+                    pending.remove(entry.getKey(), counter);
+                    delta = counter.delta.sumThenReset();   // Anything added before the writer saw the retirement
+                }
+                if (delta != 0) {
+                    inFlight.merge(entry.getKey(), delta, Long::sum);
+                    batch.add(new Object[]{delta, entry.getKey()});
+                }
+            }
+
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(FLUSH_SQL, batch));
+            } catch (RuntimeException e) {
+                logger.error("Failed to flush {} like counter deltas, will retry on the next flush", batch.size(), e);
+                for (Object[] row : batch) {
+                    add((Long) row[1], (Long) row[0]);
+                }
+            } finally {
+                inFlight.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+}
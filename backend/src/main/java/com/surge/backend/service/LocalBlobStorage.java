@@ -0,0 +1,457 @@
+package com.surge.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// Objects as files on this node's disk, for offline dev, tests and benchmarks and for nodes with fast local drives.
+// An object is stored as <root>/<shard>/<key>.blob with its content type and ETag beside it in <key>.meta. The shard is
+// two directory levels taken from the hash of the key's first segment (the username), so the root never holds more
+// than 256 entries and everything under one user prefix still sits in one tree that can be listed on its own.
+// Writes go to a temp file in the target directory, are fsynced and then renamed into place, so a reader sees either
+// no object or the whole object.
+// Urls point at LocalBlobController and carry an HMAC-SHA256 signature and expiry instead of a login.
+@Service
+@ConditionalOnProperty(name = "storage.backend", havingValue = "local")
+public class LocalBlobStorage implements BlobStorage {
+    private static final Logger logger = LoggerFactory.getLogger(LocalBlobStorage.class);
+
+    private static final String DATA_SUFFIX = ".blob";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final SecretKeySpec signingKey;
+    private final String baseUrl;
+    private final Duration urlDuration;
+    private final Duration uploadUrlDuration;
+
+    // An open object for streaming, close it when done
+    public record OpenBlob(FileChannel channel, StoredObject stored) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public LocalBlobStorage(@Value("${storage.local.root:${java.io.tmpdir}/surge-blobs}") String root,
+                            @Value("${storage.local.signing-key:}") String signingKey,
+                            @Value("${storage.local.base-url:}") String baseUrl,
+                            @Value("${storage.local.url-duration:30m}") Duration urlDuration,
+                            @Value("${storage.local.upload-url-duration:10m}") Duration uploadUrlDuration) throws IOException {
+        this.root = Files.createDirectories(Path.of(root)).toAbsolutePath().normalize();
+        this.baseUrl = baseUrl;
+        this.urlDuration = urlDuration;
+        this.uploadUrlDuration = uploadUrlDuration;
+
+        byte[] key;
+        if (signingKey.isBlank()) {
+            // Fine for a single dev node, urls handed out before a restart stop working after it
+            logger.warn("storage.local.signing-key is not set, signing urls with a random key");
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        } else {
+            key = signingKey.getBytes(StandardCharsets.UTF_8);
+        }
+        this.signingKey = new SecretKeySpec(key, "HmacSHA256");
+    }
+
+    @Override
+    public void uploadFile(String key, Path source, String contentType) {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            write(key, in, contentType, -1, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store " + key, e);
+        }
+    }
+
+    @Override
+    public void uploadFile(String key, byte[] content, String contentType) {
+        try {
+            write(key, Channels.newChannel(new ByteArrayInputStream(content)), contentType, content.length, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store " + key, e);
+        }
+    }
+
+    // Body of a signed PUT, must be exactly contentLength bytes hashing to checksum (base64 SHA-256)
+    public StoredObject uploadStream(String key, InputStream content, String contentType, long contentLength, String checksum) {
+        try {
+            return write(key, Channels.newChannel(content), contentType, contentLength, checksum);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store " + key, e);
+        }
+    }
+
+    @Override
+    public StoredObject downloadFile(String key, Path target) {
+        try (OpenBlob blob = open(key);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long position = 0;
+            long size = blob.channel().size();
+            while (position < size) {
+                position += blob.channel().transferTo(position, size - position, out);
+            }
+            return blob.stored();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + key, e);
+        }
+    }
+
+    @Override
+    public StoredObject headFile(String key) {
+        Path data = dataPath(key);
+        try {
+            return readMeta(key, data, Files.size(data));
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("Could not find file with key: " + key);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + key, e);
+        }
+    }
+
+    public OpenBlob open(String key) {
+        Path data = dataPath(key);
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(data, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("Could not find file with key: " + key);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + key, e);
+        }
+
+        try {
+            return new OpenBlob(channel, readMeta(key, data, channel.size()));
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw new UncheckedIOException("Failed to read " + key, e);
+        } catch (RuntimeException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteFileIfExists(String key) {
+        try {
+            delete(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete " + key, e);
+        }
+    }
+
+    @Override
+    public Map<String, String> deleteFiles(Collection<String> keys) {
+        if (keys.size() > MAX_DELETE_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_DELETE_BATCH_SIZE + " keys can be deleted at once");
+        }
+
+        Map<String, String> failed = new HashMap<>();
+        for (String key : keys) {
+            try {
+                delete(key);
+            } catch (IOException | IllegalArgumentException e) {
+                failed.put(key, e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+        return failed;
+    }
+
+    // Same paging contract as S3: keys in order, the token is the last key of the previous page.
+    // Every page walks the prefix's tree again, fine for the sizes a single disk holds.
+    @Override
+    public ObjectPage listObjects(String prefix, String continuationToken) {
+        Path start = listingRoot(prefix);
+        if (!Files.isDirectory(start)) {
+            return new ObjectPage(List.of(), null);
+        }
+
+        try (Stream<Path> files = Files.walk(start)) {
+            List<String> keys = new ArrayList<>(files
+                    .filter(path -> path.getFileName().toString().endsWith(DATA_SUFFIX) && Files.isRegularFile(path))
+                    .map(this::keyOf)
+                    .filter(key -> key.startsWith(prefix) && (continuationToken == null || key.compareTo(continuationToken) > 0))
+                    .sorted()
+                    .limit(MAX_DELETE_BATCH_SIZE + 1)
+                    .toList());
+
+            if (keys.size() <= MAX_DELETE_BATCH_SIZE) {
+                return new ObjectPage(keys, null);
+            }
+            keys.remove(keys.size() - 1);
+            return new ObjectPage(keys, keys.get(keys.size() - 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list objects under " + prefix, e);
+        }
+    }
+
+    @Override
+    public List<String> listChildPrefixes(String prefix) {
+        List<String> prefixes = new ArrayList<>();
+        try {
+            if (prefix.isEmpty()) {
+                // The user folders, two shard levels down
+                try (Stream<Path> dirs = Files.find(root, 3, (path, attributes) -> attributes.isDirectory() && root.relativize(path).getNameCount() == 3)) {
+                    dirs.forEach(dir -> prefixes.add(dir.getFileName().toString() + "/"));
+                }
+            } else {
+                if (!prefix.endsWith("/")) {
+                    throw new IllegalArgumentException("Prefix must end with a slash: " + prefix);
+                }
+                Path dir = listingRoot(prefix);
+                if (Files.isDirectory(dir)) {
+                    try (Stream<Path> children = Files.list(dir)) {
+                        children.filter(Files::isDirectory)
+                                .forEach(child -> prefixes.add(prefix + child.getFileName().toString() + "/"));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list prefixes under " + prefix, e);
+        }
+        prefixes.sort(null);
+        return prefixes;
+    }
+
+    // Urls of a key signed within the same half of url-duration are identical, so clients and the browser cache see
+    // one url per image instead of a new one on every feed page. Each stays valid for at least half the duration.
+    @Override
+    public String getImageUrl(String objectKey) {
+        if (objectKey == null || objectKey.isBlank()) {
+            throw new IllegalArgumentException("Object key must not be null or empty");
+        }
+        long window = Math.max(1, urlDuration.getSeconds() / 2);
+        long expires = (Instant.now().getEpochSecond() / window + 2) * window;
+        return url(objectKey, expires, sign("GET\n" + objectKey + "\n" + expires));
+    }
+
+    @Override
+    public Map<String, String> getImageUrls(Collection<String> objectKeys) {
+        Map<String, String> urls = new HashMap<>(objectKeys.size() * 2);
+        for (String objectKey : objectKeys) {
+            urls.put(objectKey, getImageUrl(objectKey));
+        }
+        return urls;
+    }
+
+    @Override
+    public PresignedUpload presignUpload(String key, String contentType, long contentLength, String sha256) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("File key cannot be null or empty");
+        }
+        Instant expiresAt = Instant.now().plus(uploadUrlDuration);
+        long expires = expiresAt.getEpochSecond();
+        String signature = sign(uploadPayload(key, contentType, contentLength, BlobStorage.checksumSha256(sha256), expires));
+        return new PresignedUpload(url(key, expires, signature), expiresAt);
+    }
+
+    public boolean isValidDownload(String key, long expires, String signature) {
+        return isValid("GET\n" + key + "\n" + expires, expires, signature);
+    }
+
+    // checksum is the x-amz-checksum-sha256 header the client sent, it must be the signed one
+    public boolean isValidUpload(String key, String contentType, long contentLength, String checksum, long expires, String signature) {
+        return isValid(uploadPayload(key, contentType, contentLength, checksum, expires), expires, signature);
+    }
+
+    private static String uploadPayload(String key, String contentType, long contentLength, String checksum, long expires) {
+        return "PUT\n" + key + "\n" + contentType + "\n" + contentLength + "\n" + checksum + "\n" + expires;
+    }
+
+    private boolean isValid(String payload, long expires, String signature) {
+        if (signature == null || expires < Instant.now().getEpochSecond()) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(payload).getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String url(String key, long expires, String signature) {
+        return baseUrl + "/api/blobs/" + UriUtils.encodePath(key, StandardCharsets.UTF_8) + "?expires=" + expires + "&signature=" + signature;
+    }
+
+    private String sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");   // Not thread safe, and cheap next to a file read
+            mac.init(signingKey);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    // Streams into a temp file while computing the MD5 ETag (what S3 reports for a single part put), then renames the
+    // metadata and the data into place. expectedLength < 0 accepts any length, a null checksum any content.
+    private StoredObject write(String key, ReadableByteChannel in, String contentType, long expectedLength, String checksum) throws IOException {
+        Path data = dataPath(key);
+        Path meta = metaPath(data);
+        Files.createDirectories(data.getParent());
+
+        String tempName = "." + UUID.randomUUID();
+        Path tempData = data.resolveSibling(data.getFileName() + tempName + TEMP_SUFFIX);
+        Path tempMeta = meta.resolveSibling(meta.getFileName() + tempName + TEMP_SUFFIX);
+        try {
+            MessageDigest md5 = digest("MD5");
+            MessageDigest sha256 = digest("SHA-256");
+            long size = 0;
+            try (FileChannel out = FileChannel.open(tempData, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (in.read(buffer) >= 0) {
+                    buffer.flip();
+                    size += buffer.remaining();
+                    if (expectedLength >= 0 && size > expectedLength) {
+                        throw new IllegalArgumentException("Content is longer than " + expectedLength + " bytes");
+                    }
+                    md5.update(buffer.array(), 0, buffer.limit());
+                    sha256.update(buffer.array(), 0, buffer.limit());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                if (expectedLength >= 0 && size != expectedLength) {
+                    throw new IllegalArgumentException("Content is " + size + " bytes, expected " + expectedLength);
+                }
+                if (checksum != null && !checksum.equals(Base64.getEncoder().encodeToString(sha256.digest()))) {
+                    throw new IllegalArgumentException("Content does not match its x-amz-checksum-sha256");
+                }
+                out.force(true);
+            }
+
+            StoredObject stored = new StoredObject(contentType, "\"" + HexFormat.of().formatHex(md5.digest()) + "\"", size);
+            Files.writeString(tempMeta, contentType + "\n" + stored.eTag() + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+
+            // Metadata first, the data file is what makes the object visible
+            Files.move(tempMeta, meta, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempData, data, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return stored;
+        } finally {
+            Files.deleteIfExists(tempData);
+            Files.deleteIfExists(tempMeta);
+        }
+    }
+
+    private StoredObject readMeta(String key, Path data, long size) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(metaPath(data), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("Could not find file with key: " + key);
+        }
+        if (lines.size() < 2) {
+            throw new IOException("Corrupt metadata for " + key);
+        }
+        return new StoredObject(lines.get(0), lines.get(1), size);
+    }
+
+    // The data file first, without it the object is already gone for readers
+    private void delete(String key) throws IOException {
+        Path data = dataPath(key);
+        Files.deleteIfExists(data);
+        Files.deleteIfExists(metaPath(data));
+    }
+
+    private Path dataPath(String key) {
+        validateKey(key);
+        return shardRoot(key).resolve(key + DATA_SUFFIX);
+    }
+
+    private static Path metaPath(Path data) {
+        String name = data.getFileName().toString();
+        return data.resolveSibling(name.substring(0, name.length() - DATA_SUFFIX.length()) + META_SUFFIX);
+    }
+
+    // Where a listing of prefix starts: the folder named by its complete segments, or the whole root when not even
+    // the first segment is complete
+    private Path listingRoot(String prefix) {
+        int lastSlash = prefix.lastIndexOf('/');
+        if (lastSlash < 0) {
+            return root;
+        }
+        String folder = prefix.substring(0, lastSlash);
+        validateKey(folder);
+        return shardRoot(folder).resolve(folder);
+    }
+
+    private Path shardRoot(String key) {
+        int slash = key.indexOf('/');
+        String firstSegment = slash < 0 ? key : key.substring(0, slash);
+        byte[] hash = sha256(firstSegment);
+        return root.resolve(HexFormat.of().toHexDigits(hash[0])).resolve(HexFormat.of().toHexDigits(hash[1]));
+    }
+
+    private String keyOf(Path data) {
+        Path relative = root.relativize(data);
+        String key = relative.subpath(2, relative.getNameCount()).toString().replace(relative.getFileSystem().getSeparator(), "/");
+        return key.substring(0, key.length() - DATA_SUFFIX.length());
+    }
+
+    // Keys become paths, so nothing that could leave the root or alias another key gets through
+    private static void validateKey(String key) {
+        if (key == null || key.isEmpty() || key.startsWith("/") || key.endsWith("/") || key.contains("\\") || key.indexOf('\0') >= 0) {
+            throw new IllegalArgumentException("Invalid object key: " + key);
+        }
+        for (String segment : key.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..") || segment.endsWith(TEMP_SUFFIX)) {
+                throw new IllegalArgumentException("Invalid object key: " + key);
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Could not close a blob", e);
+        }
+    }
+
+    private static byte[] sha256(String value) {
+        return digest("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not available", e);
+        }
+    }
+}
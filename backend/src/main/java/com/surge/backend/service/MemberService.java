@@ -11,7 +11,9 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.UserDetailsManager;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -28,48 +30,100 @@ public class MemberService {
     private final UserDetailsManager userDetailsManager;
     private final PasswordEncoder passwordEncoder;
 
-    private final S3Service s3Service;
+    private final BlobStorage blobStorage;
+    private final ImageUploadWorker imageUploadWorker;
+    private final ContentObjectService contentObjects;
+    private final TransactionTemplate transactionTemplate;
 
-    public MemberService(MemberDao memberDao, UserDetailsManager userDetailsManager, PasswordEncoder passwordEncoder, S3Service s3Service) {
+    public MemberService(MemberDao memberDao, UserDetailsManager userDetailsManager, PasswordEncoder passwordEncoder, BlobStorage blobStorage, ImageUploadWorker imageUploadWorker, ContentObjectService contentObjects, PlatformTransactionManager transactionManager) {
         this.memberDao = memberDao;
         this.userDetailsManager = userDetailsManager;
         this.passwordEncoder = passwordEncoder;
-        this.s3Service = s3Service;
+        this.blobStorage = blobStorage;
+        this.imageUploadWorker = imageUploadWorker;
+        this.contentObjects = contentObjects;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     private String getStringValueWithoutSpaces(String value) {
         return value.trim().replaceAll("\\s", "");
     }
 
-    @Transactional
+    // Not transactional itself: the account is committed first and the profile photo is uploaded afterwards,
+    // the member has no photo until that upload has finished
     public Member createUser(RegisterFormDto dto) {
-        if (memberDao.existsById(dto.getUsername().trim())) {
+        String username = dto.getUsername().trim();
+
+        if (memberDao.existsById(username)) {
             throw new DuplicateKeyException("The username already exists");
         }
         if (memberDao.existsByEmail(dto.getEmail().trim())) {
             throw new DuplicateKeyException("The email already exists");
         }
 
-        UserDetails userDetails = User.builder()
-                .username(dto.getUsername().trim())
-                .password(passwordEncoder.encode(dto.getPassword().trim()))
-                .roles("USER")
-                .disabled(false)
-                .build();
-
-        userDetailsManager.createUser(userDetails);
-
-        Member newUser = memberDao.findById(dto.getUsername().trim()).orElseThrow(() -> new ValidationException("Could not find created user, please contact support"));
+        // Hashing and staging the photo happen before the transaction, neither needs a connection.
+        // A concurrent registration of the same name still fails on the users primary key inside it.
+        String encodedPassword = passwordEncoder.encode(dto.getPassword().trim());
+        ImageUploadWorker.StagedUpload upload = dto.getFile() != null
+                ? imageUploadWorker.stage(dto.getFile())
+                : null;
+
+        Member savedUser;
+        try {
+            savedUser = transactionTemplate.execute(status -> {
+                UserDetails userDetails = User.builder()
+                        .username(username)
+                        .password(encodedPassword)
+                        .roles("USER")
+                        .disabled(false)
+                        .build();
+
+                userDetailsManager.createUser(userDetails);
+
+                Member newUser = memberDao.findById(username).orElseThrow(() -> new ValidationException("Could not find created user, please contact support"));
+
+                newUser.setEmail(dto.getEmail().trim());
+                newUser.setFirstName(dto.getFirstName().trim());
+                newUser.setLastName(dto.getLastName().trim());
+
+                // Content that is already stored becomes the photo right away, no upload needed
+                if (upload != null && contentObjects.find(upload.key()).isStored()) {
+                    newUser.setFile(upload.key());
+                    Member saved = memberDao.saveAndFlush(newUser);
+                    if (contentObjects.acquire(upload.key()).isVariantsReady()) {
+                        memberDao.markPhotoVariantsReadyByFile(upload.key());
+                        saved.setPhotoVariantsReady(true);
+                    }
+                    return saved;
+                }
+
+                return memberDao.save(newUser);
+            });
+        } catch (RuntimeException e) {
+            if (upload != null) {
+                imageUploadWorker.discard(upload);
+            }
+            throw e;
+        }
 
-        newUser.setEmail(dto.getEmail().trim());
-        newUser.setFirstName(dto.getFirstName().trim());
-        newUser.setLastName(dto.getLastName().trim());
-        if (dto.getFile() != null) {
-            String newImgUrl = s3Service.uploadFile(dto.getFile(), S3Service.ImageType.PROFILE_PHOTO, newUser.getUserId());
-            newUser.setFile(newImgUrl);
+        if (upload != null && savedUser.getFile() != null) {
+            imageUploadWorker.discard(upload);
+        } else if (upload != null) {
+            // The reference is taken together with setting the photo, until then the content row is kept by its grace period
+            imageUploadWorker.submit(upload,
+                    () -> {
+                        contentObjects.markStored(upload.key());
+                        transactionTemplate.executeWithoutResult(status -> {
+                            if (memberDao.updateFileIfUnset(username, upload.key()) == 1) {
+                                contentObjects.acquire(upload.key());
+                            }
+                        });
+                    },
+                    () -> contentObjects.markVariantsReady(upload.key()),
+                    () -> {});   // The account stays usable without a photo
         }
 
-        return memberDao.save(newUser);
+        return savedUser;
 
     }
 
@@ -98,14 +152,18 @@ public class MemberService {
         Member user = memberDao.findById(username.trim()).orElseThrow(() -> new ValidationException("Cannot find user with username: " + username.trim()));
 
         return Map.of(
-                "profilePic", s3Service.generatePreSignedUrl(user.getFile()),
+                "profilePic", profilePhotoUrl(user),
                 "username", user.getUserId(),
                 "fullName", user.getFirstName() + " " + user.getLastName()
         );
 
     }
 
-
-
-
+    // Profile photos are only ever shown small, the THUMB variant once it exists
+    public String profilePhotoUrl(Member user) {
+        if (user.getFile() == null) {
+            return "";
+        }
+        return blobStorage.getImageUrl(user.isPhotoVariantsReady() ? ImageVariant.THUMB.keyFor(user.getFile()) : user.getFile());
+    }
 }
@@ -0,0 +1,130 @@
+package com.surge.backend.service;
+
+import com.surge.backend.dao.ObjectDeletionDao;
+import com.surge.backend.entity.ObjectDeletion;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Deferred deletion of bucket objects. Deleting a row only records its object keys here, in the same transaction,
+// so the request never waits on S3 and a rolled back delete leaves the objects alone. The drainer deletes due keys
+// in DeleteObjects batches and retries failures with exponential backoff.
+// Instances draining at the same time may both delete a key, which S3 treats as a no-op.
+@Service
+public class ObjectDeletionOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(ObjectDeletionOutbox.class);
+
+    private final ObjectDeletionDao objectDeletionDao;
+    private final BlobStorage blobStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration retryBackoff;
+    private final Duration maxRetryBackoff;
+
+    private final Counter deleted;
+    private final Counter failed;
+
+    public ObjectDeletionOutbox(ObjectDeletionDao objectDeletionDao,
+                                BlobStorage blobStorage,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${storage.deletions.retry-backoff:30s}") Duration retryBackoff,
+                                @Value("${storage.deletions.max-retry-backoff:6h}") Duration maxRetryBackoff,
+                                MeterRegistry meterRegistry) {
+        this.objectDeletionDao = objectDeletionDao;
+        this.blobStorage = blobStorage;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retryBackoff = retryBackoff;
+        this.maxRetryBackoff = maxRetryBackoff;
+
+        this.deleted = Counter.builder("storage.deletions").tag("result", "deleted").register(meterRegistry);
+        this.failed = Counter.builder("storage.deletions").tag("result", "failed").register(meterRegistry);
+    }
+
+    // Must join the transaction that deletes the rows referencing these keys
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueue(Collection<String> keys) {
+        LocalDateTime now = LocalDateTime.now();
+        List<ObjectDeletion> deletions = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            deletions.add(new ObjectDeletion(key, now));
+        }
+        objectDeletionDao.saveAll(deletions);
+    }
+
+    @Scheduled(fixedDelayString = "${storage.deletions.drain-interval-ms:5000}")
+    public void drain() {
+        // A full batch means there may be more due, a short one means the backlog is drained for now
+        int drained;
+        do {
+            drained = drainBatch();
+        } while (drained == BlobStorage.MAX_DELETE_BATCH_SIZE);
+    }
+
+    // Returns how many outbox rows were handled, 0 when the request failed as a whole so draining stops until the next run.
+    // No transaction is held while storage is called.
+    int drainBatch() {
+        List<ObjectDeletion> due = transactionTemplate.execute(status ->
+                objectDeletionDao.findDue(LocalDateTime.now(), Limit.of(BlobStorage.MAX_DELETE_BATCH_SIZE)));
+        if (due.isEmpty()) {
+            return 0;
+        }
+
+        // The same key can be queued twice (e.g. a post deleted while its stale sweep ran), S3 gets it once
+        List<String> keys = due.stream().map(ObjectDeletion::getObjectKey).distinct().toList();
+        Map<String, String> errors;
+        try {
+            errors = blobStorage.deleteFiles(keys);
+        } catch (RuntimeException e) {
+            logger.warn("Deleting {} objects failed, retrying later", keys.size(), e);
+            errors = null;
+        }
+
+        List<Long> done = new ArrayList<>(due.size());
+        List<ObjectDeletion> retries = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (ObjectDeletion deletion : due) {
+            String error = errors == null ? "Batch request failed" : errors.get(deletion.getObjectKey());
+            if (error == null) {
+                done.add(deletion.getId());
+                continue;
+            }
+            deletion.setAttempts(deletion.getAttempts() + 1);
+            deletion.setNextAttemptAt(now.plus(backoff(deletion.getAttempts())));
+            deletion.setLastError(error.length() > 1000 ? error.substring(0, 1000) : error);
+            retries.add(deletion);
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            objectDeletionDao.deleteAllByIdInBatch(done);
+            objectDeletionDao.saveAll(retries);
+        });
+
+        deleted.increment(done.size());
+        failed.increment(retries.size());
+        if (!retries.isEmpty()) {
+            logger.warn("{} of {} object deletions failed, first error: {}", retries.size(), due.size(), retries.get(0).getLastError());
+        }
+        return errors == null ? 0 : due.size();
+    }
+
+    // retryBackoff doubled per failed attempt, capped at maxRetryBackoff
+    private Duration backoff(int attempts) {
+        Duration backoff = retryBackoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return backoff.compareTo(maxRetryBackoff) > 0 ? maxRetryBackoff : backoff;
+    }
+}
@@ -0,0 +1,71 @@
+package com.surge.backend.service;
+
+import com.surge.backend.dao.CommentDao;
+import com.surge.backend.dao.PostDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Periodically repairs drift between posts.like_count / posts.comment_count / comments.reply_count and the likes /
+// comments tables. Comment counts are maintained transactionally, so any repair there points at a bug or a manual
+// data fix. Like counts drift when committed likes never got flushed (a crash, kill -9, a failed shutdown flush).
+// A like delta may still be waiting on some instance, a recount would include it and its flush would add it again,
+// so only posts without likes in the quiet period and without a delta waiting here are recounted, with this
+// instance's flushes paused. An unlike leaves no row to check, one still waiting on another instance during the
+// recount gets subtracted twice, which the next run repairs.
+@Service
+public class PostCounterReconciler {
+    private static final Logger logger = LoggerFactory.getLogger(PostCounterReconciler.class);
+
+    private final PostDao postDao;
+    private final CommentDao commentDao;
+    private final LikeCounterService likeCounterService;
+    private final TransactionTemplate transactionTemplate;
+
+    // Many flush intervals, so every instance has flushed what was committed before it, also covers clock skew
+    @Value("${posts.counters.like-quiet-period:1m}")
+    private Duration likeQuietPeriod = Duration.ofMinutes(1);
+
+    public PostCounterReconciler(PostDao postDao, CommentDao commentDao, LikeCounterService likeCounterService, PlatformTransactionManager transactionManager) {
+        this.postDao = postDao;
+        this.commentDao = commentDao;
+        this.likeCounterService = likeCounterService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(cron = "${posts.counters.reconcile-cron:0 0 3 * * *}")
+    public void reconcile() {
+        int repairedLikes = reconcileLikeCounts();
+        int repairedComments = transactionTemplate.execute(status -> postDao.reconcileCommentCounts());
+        int repairedReplies = transactionTemplate.execute(status -> commentDao.reconcileReplyCounts());
+
+        if (repairedLikes > 0 || repairedComments > 0 || repairedReplies > 0) {
+            logger.warn("Repaired post counters: {} like counts, {} comment counts, {} reply counts",
+                    repairedLikes, repairedComments, repairedReplies);
+        }
+    }
+
+    private int reconcileLikeCounts() {
+        LocalDateTime quietSince = LocalDateTime.now().minus(likeQuietPeriod);
+        likeCounterService.pauseFlushes();
+        try {
+            List<Long> ids = new ArrayList<>(transactionTemplate.execute(status -> postDao.findLikeCountDriftIds(quietSince)));
+            ids.removeAll(likeCounterService.unflushed().keySet());
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            return transactionTemplate.execute(status -> postDao.recountLikes(ids, quietSince));
+        } finally {
+            likeCounterService.resumeFlushes();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.surge.backend.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.surge.backend.dao.LikeDao;
+import com.surge.backend.dao.SaveDao;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+
+// Per-user sets of liked and saved post ids, kept as compressed (Roaring) bitmaps, so isLiked/isSaved for a whole
+// feed page is a handful of in-memory lookups instead of database queries.
+// Users are loaded lazily on first use, updated in place on toggles and evicted by total size and inactivity.
+@Service
+public class PostMembershipIndex {
+    private final LikeDao likeDao;
+    private final SaveDao saveDao;
+    private final Cache<String, Membership> memberships;
+
+    public PostMembershipIndex(LikeDao likeDao,
+                               SaveDao saveDao,
+                               @Value("${membership.index.max-bytes:67108864}") long maxBytes,
+                               @Value("${membership.index.expire-after-access:30m}") Duration expireAfterAccess,
+                               @Value("${membership.index.expire-after-write:10m}") Duration expireAfterWrite) {
+        this.likeDao = likeDao;
+        this.saveDao = saveDao;
+        this.memberships = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String userId, Membership membership) -> membership.weight())
+                .expireAfter(expiry(expireAfterAccess, expireAfterWrite))
+                .recordStats()
+                .build();
+    }
+
+    // Evicts a user after expireAfterAccess without reads, and at the latest expireAfterWrite after they were loaded,
+    // which bounds staleness from toggles handled by other instances. In-place toggles keep the remaining time, with
+    // Caffeine's expireAfterWrite they would count as writes and a user who keeps toggling would never be reloaded.
+    private static Expiry<String, Membership> expiry(Duration expireAfterAccess, Duration expireAfterWrite) {
+        long access = expireAfterAccess.toNanos();
+        long write = expireAfterWrite.toNanos();
+        return new Expiry<>() {
+            @Override
+            public long expireAfterCreate(String userId, Membership membership, long currentTime) {
+                return remaining(membership, currentTime);
+            }
+
+            @Override
+            public long expireAfterUpdate(String userId, Membership membership, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+
+            @Override
+            public long expireAfterRead(String userId, Membership membership, long currentTime, long currentDuration) {
+                return remaining(membership, currentTime);
+            }
+
+            private long remaining(Membership membership, long currentTime) {
+                return Math.max(0, Math.min(access, membership.loadedAt + write - currentTime));
+            }
+        };
+    }
+
+    public static final class Membership {
+        private final Roaring64Bitmap liked = new Roaring64Bitmap();
+        private final Roaring64Bitmap saved = new Roaring64Bitmap();
+        private final long loadedAt = System.nanoTime();   // Same clock as Caffeine's default ticker
+
+        public Membership(Collection<Long> likedPostIds, Collection<Long> savedPostIds) {
+            likedPostIds.forEach(liked::addLong);
+            savedPostIds.forEach(saved::addLong);
+            liked.runOptimize();
+            saved.runOptimize();
+        }
+
+        public synchronized boolean isLiked(long postId) {
+            return liked.contains(postId);
+        }
+
+        public synchronized boolean isSaved(long postId) {
+            return saved.contains(postId);
+        }
+
+        synchronized void setLiked(long postId, boolean value) {
+            if (value) {
+                liked.addLong(postId);
+            } else {
+                liked.removeLong(postId);
+            }
+        }
+
+        synchronized void setSaved(long postId, boolean value) {
+            if (value) {
+                saved.addLong(postId);
+            } else {
+                saved.removeLong(postId);
+            }
+        }
+
+        synchronized int weight() {
+            return (int) Math.min(Integer.MAX_VALUE, liked.getLongSizeInBytes() + saved.getLongSizeInBytes());
+        }
+    }
+
+    public Membership forUser(String userId) {
+        return memberships.get(userId, this::load);
+    }
+
+    private Membership load(String userId) {
+        return new Membership(likeDao.findPostIdsLikedBy(userId), saveDao.findPostIdsSavedBy(userId));
+    }
+
+    // Only users already in memory are updated, everybody else picks the change up on their next load.
+    // computeIfPresent is serialized with an in-flight load of the same user, so a toggle can't be lost to it.
+    public void setLiked(String userId, long postId, boolean liked) {
+        memberships.asMap().computeIfPresent(userId, (id, membership) -> {
+            membership.setLiked(postId, liked);
+            return membership;
+        });
+    }
+
+    public void setSaved(String userId, long postId, boolean saved) {
+        memberships.asMap().computeIfPresent(userId, (id, membership) -> {
+            membership.setSaved(postId, saved);
+            return membership;
+        });
+    }
+}
@@ -1,133 +1,462 @@
 package com.surge.backend.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.surge.backend.security.CurrentMember;
+import com.surge.backend.util.CommentCursor;
+import com.surge.backend.util.FeedCursor;
 import com.surge.backend.util.TimeFormatter;
+import com.surge.backend.util.TransactionHooks;
 import com.surge.backend.dao.*;
+import com.surge.backend.dto.CommentItemDto;
 import com.surge.backend.dto.CommentNewDto;
+import com.surge.backend.dto.CommentPageDto;
+import com.surge.backend.dto.CommentRowDto;
+import com.surge.backend.dto.PostFeedItemDto;
+import com.surge.backend.dto.PostFeedPageDto;
+import com.surge.backend.dto.PostFeedRowDto;
 import com.surge.backend.dto.PostNewDto;
+import com.surge.backend.dto.PostUploadFinalizeDto;
+import com.surge.backend.dto.PostUploadRequestDto;
+import com.surge.backend.dto.PostUploadUrlDto;
 import com.surge.backend.entity.*;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.stream.Stream;
 
 @Service
 public class PostService {
+    private static final Logger logger = LoggerFactory.getLogger(PostService.class);
+
     private final PostDao postDao;
     private final MemberDao memberDao;
     private final SaveDao saveDao;
     private final LikeDao likeDao;
     private final CommentDao commentDao;
     private final MemberService memberService;
-    private final S3Service s3Service;
+    private final BlobStorage blobStorage;
     private final TimeFormatter timeFormatter;
+    private final FeedRankIndex feedRankIndex;
+    private final LikeCounterService likeCounterService;
+    private final PostMembershipIndex membershipIndex;
+    private final ObjectMapper objectMapper;
+    private final ImageUploadWorker imageUploadWorker;
+    private final ObjectDeletionOutbox objectDeletionOutbox;
+    private final ContentObjectService contentObjects;
+    private final PendingUploadDao pendingUploadDao;
+    private final TransactionTemplate transactionTemplate;
+
+    private static final int ID_BATCH_SIZE = 1000;
+    private static final int PRESIGN_BATCH_SIZE = 100;   // Rows buffered while streaming so their image urls can be signed together
+    private static final int PENDING_SWEEP_BATCH_SIZE = 100;   // Stale pending posts removed per sweep run
+
+    @Value("${feed.page-size.default:20}")
+    private int defaultPageSize = 20;
+
+    @Value("${feed.page-size.max:100}")
+    private int maxPageSize = 100;
+
+    @Value("${comments.page-size.default:20}")
+    private int defaultCommentPageSize = 20;
 
-    public PostService(PostDao postDao, MemberDao memberDao, SaveDao saveDao, LikeDao likeDao, CommentDao commentDao, MemberService memberService, S3Service s3Service, TimeFormatter timeFormatter) {
+    @Value("${comments.page-size.max:100}")
+    private int maxCommentPageSize = 100;
+
+    // Same limit as spring.servlet.multipart.max-file-size for the multipart upload
+    @Value("${posts.upload.max-bytes:8388608}")
+    private long maxUploadBytes = 8 * 1024 * 1024;
+
+    // Uploads are long done by then, a post still pending this late lost its upload to a crash or restart
+    @Value("${posts.pending.max-age:1h}")
+    private Duration pendingMaxAge = Duration.ofHours(1);
+
+    public PostService(PostDao postDao, MemberDao memberDao, SaveDao saveDao, LikeDao likeDao, CommentDao commentDao, MemberService memberService, BlobStorage blobStorage, TimeFormatter timeFormatter, FeedRankIndex feedRankIndex, LikeCounterService likeCounterService, PostMembershipIndex membershipIndex, ObjectMapper objectMapper, ImageUploadWorker imageUploadWorker, ObjectDeletionOutbox objectDeletionOutbox, ContentObjectService contentObjects, PendingUploadDao pendingUploadDao, PlatformTransactionManager transactionManager) {
         this.postDao = postDao;
         this.memberDao = memberDao;
         this.saveDao = saveDao;
         this.likeDao = likeDao;
         this.commentDao = commentDao;
         this.memberService = memberService;
-        this.s3Service = s3Service;
+        this.blobStorage = blobStorage;
         this.timeFormatter = timeFormatter;
+        this.feedRankIndex = feedRankIndex;
+        this.likeCounterService = likeCounterService;
+        this.membershipIndex = membershipIndex;
+        this.objectMapper = objectMapper;
+        this.imageUploadWorker = imageUploadWorker;
+        this.objectDeletionOutbox = objectDeletionOutbox;
+        this.contentObjects = contentObjects;
+        this.pendingUploadDao = pendingUploadDao;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
-    // Create new Post
-    @Transactional
-    public Post addPost(PostNewDto dto) {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
+    // Create new Post. Not transactional itself: the post is committed as PENDING first and the image is uploaded
+    // afterwards, so no database connection is held while the bucket is being written to.
+    // An image whose content is already stored is not uploaded again, the post shares that object and is READY at once.
+    public Post addPost(CurrentMember member, PostNewDto dto) {
+
+        ImageUploadWorker.StagedUpload upload = imageUploadWorker.stage(dto.getFile());
+        String key = upload.key();
+
+        Post savedPost;
+        try {
+            savedPost = transactionTemplate.execute(status -> {
+                ContentObject content = contentObjects.acquire(key);
+                Post newPost = new Post();
+                newPost.setFile(key);
+                newPost.setCaption(dto.getCaption().trim());
+                newPost.setUser(memberDao.getReferenceById(member.userId()));   // Only the foreign key is needed
+                newPost.setStatus(content.isStored() ? PostStatus.READY : PostStatus.PENDING);
+                newPost.setVariantsReady(content.isVariantsReady());
+                return postDao.save(newPost);
+            });
+        } catch (RuntimeException e) {
+            imageUploadWorker.discard(upload);   // The content row without references is swept later
+            throw e;
+        }
+
+        Long postId = savedPost.getId();
+        LocalDateTime createdAt = savedPost.getCreatedAt();
+        if (savedPost.getStatus() == PostStatus.READY) {
+            imageUploadWorker.discard(upload);
+            feedRankIndex.add(postId, 0, createdAt);
+            if (!savedPost.isVariantsReady()) {
+                imageUploadWorker.submitVariants(key, () -> contentObjects.markVariantsReady(key));
+            }
+            return savedPost;
+        }
+
+        imageUploadWorker.submit(upload,
+                () -> {
+                    contentObjects.markStored(key);
+                    markPostReady(postId, createdAt);
+                },
+                () -> contentObjects.markVariantsReady(key),
+                () -> removePendingPost(postId));
+
+        return savedPost;
+
+    }
+
+    // Direct upload, phase one: registers the content the client is about to upload by its SHA-256 and returns a
+    // presigned PUT for its key, the image never passes through this server. When the same content is already stored
+    // there is nothing to upload and the client finalizes straight away.
+    // The upload is recorded for the member, only they can finalize it.
+    public PostUploadUrlDto requestUpload(CurrentMember member, PostUploadRequestDto dto) {
+        if (dto.getSize() > maxUploadBytes) {
+            throw new IllegalArgumentException("The image must not be larger than " + maxUploadBytes + " bytes");
+        }
+
+        String key = contentObjects.register(dto.getSha256(), dto.getContentType());
+        String uploadId = UUID.randomUUID().toString();
+        pendingUploadDao.save(new PendingUpload(uploadId, memberDao.getReferenceById(member.userId()), key));
+        if (contentObjects.find(key).isStored()) {
+            return new PostUploadUrlDto(uploadId, key, null, dto.getContentType(), dto.getSize(), null, null);
+        }
+
+        BlobStorage.PresignedUpload upload = blobStorage.presignUpload(key, dto.getContentType(), dto.getSize(), dto.getSha256());
+        return new PostUploadUrlDto(uploadId, key, upload.url(), dto.getContentType(), dto.getSize(),
+                BlobStorage.checksumSha256(dto.getSha256()), upload.expiresAt());
+    }
+
+    // Direct upload, phase two: checks what actually landed in the bucket, then creates the post.
+    // The object already exists, so the post is READY straight away and only the variants follow later.
+    // Storage only accepted a body matching the registered hash, so the key can be trusted to hold that content.
+    // A retried finalize returns the post the first one created instead of creating another.
+    public Post finalizeUpload(CurrentMember member, PostUploadFinalizeDto dto) {
+        PendingUpload pending = pendingUploadDao.findById(dto.getUploadId().trim())
+                .orElseThrow(() -> new IllegalArgumentException("Unknown upload: " + dto.getUploadId()));
+        if (!pending.getUser().getUserId().equals(member.userId())) {
+            throw new IllegalArgumentException("The upload does not belong to the user");
+        }
+        if (pending.getPostId() != null) {
+            return findFinalizedPost(pending);
+        }
+
+        String key = pending.getObjectKey();
+        ContentObject content;
+        try {
+            content = contentObjects.find(key);
+        } catch (NoSuchElementException e) {
+            throw new IllegalArgumentException("Unknown upload key: " + key);
+        }
+
+        if (!content.isStored()) {
+            BlobStorage.StoredObject stored = blobStorage.headFile(key);
+            if (stored.contentType() == null || !stored.contentType().startsWith("image/") || stored.contentLength() > maxUploadBytes) {
+                throw new IllegalArgumentException("The uploaded file is not an image or is too large");
+            }
+            contentObjects.markStored(key);
+        }
+
+        // Null when a concurrent finalize of the same upload won the row lock
+        Post savedPost = transactionTemplate.execute(status -> {
+            PendingUpload locked = pendingUploadDao.findByIdForUpdate(pending.getId())
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown upload: " + pending.getId()));
+            if (locked.getPostId() != null) {
+                return null;
+            }
+            Post newPost = new Post();
+            newPost.setFile(key);
+            newPost.setCaption(dto.getCaption().trim());
+            newPost.setUser(memberDao.getReferenceById(member.userId()));
+            newPost.setVariantsReady(contentObjects.acquire(key).isVariantsReady());
+            Post saved = postDao.save(newPost);
+            locked.setPostId(saved.getId());
+            pendingUploadDao.save(locked);
+            return saved;
+        });
+        if (savedPost == null) {
+            return findFinalizedPost(pendingUploadDao.findById(pending.getId()).orElseThrow());
+        }
+
+        feedRankIndex.add(savedPost.getId(), 0, savedPost.getCreatedAt());
+        if (!savedPost.isVariantsReady()) {
+            imageUploadWorker.submitVariants(key, () -> contentObjects.markVariantsReady(key));
+        }
 
-        Post newPost = new Post();
+        return savedPost;
+    }
 
-        String newPostImg = s3Service.uploadFile(dto.getFile(), S3Service.ImageType.PROFILE_POSTS, user.getUserId());
+    private Post findFinalizedPost(PendingUpload pending) {
+        return postDao.findById(pending.getPostId())
+                .orElseThrow(() -> new IllegalArgumentException("The upload was finalized into a post that has since been deleted"));
+    }
 
-        newPost.setFile(newPostImg);
-        newPost.setCaption(dto.getCaption().trim());
-        newPost.setUser(user);
+    // Nothing to do when the post was deleted while its image was uploading, the delete released its reference
+    private void markPostReady(Long postId, LocalDateTime createdAt) {
+        boolean ready = transactionTemplate.execute(status -> postDao.markReady(postId) == 1);
+        if (ready) {
+            feedRankIndex.add(postId, 0, createdAt);
+        }
+    }
 
-        return postDao.save(newPost);
+    private void removePendingPost(Long postId) {
+        transactionTemplate.executeWithoutResult(status -> postDao.findById(postId)
+                .filter(post -> post.getStatus() == PostStatus.PENDING)
+                .ifPresent(this::deletePostAndObjects));
+    }
 
+    // Posts whose upload never finished (the instance died with it queued) are removed together with whatever
+    // part of the upload made it to the bucket
+    @Scheduled(fixedDelayString = "${posts.pending.sweep-interval-ms:600000}")
+    public void removeStalePendingPosts() {
+        LocalDateTime before = LocalDateTime.now().minus(pendingMaxAge);
+        List<Long> stale = transactionTemplate.execute(status ->
+                postDao.findPendingIdsCreatedBefore(before, Limit.of(PENDING_SWEEP_BATCH_SIZE)));
+
+        for (Long postId : stale) {
+            transactionTemplate.executeWithoutResult(status -> postDao.findById(postId)
+                    .filter(post -> post.getStatus() == PostStatus.PENDING)
+                    .ifPresent(this::deletePostAndObjects));
+        }
+        if (!stale.isEmpty()) {
+            logger.warn("Removed {} posts whose image upload never finished", stale.size());
+        }
+
+        // Direct uploads are finalized (and retried) within minutes of their presigned url expiring
+        transactionTemplate.executeWithoutResult(status -> pendingUploadDao.deleteCreatedBefore(before));
     }
 
     // Delete existing Post
     @Transactional
-    public void deletePost(Long postId) {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
+    public void deletePost(CurrentMember member, Long postId) {
 
         Post post = postDao.findById(postId).orElseThrow(() -> new NoSuchElementException("Could not find post with Id: " + postId));
 
-        if (!user.getUserId().equals(post.getUser().getUserId())) {
-            throw new IllegalArgumentException("This post requested to delete does not belong to the user with username: " + user.getUserId());
+        if (!member.userId().equals(post.getUser().getUserId())) {
+            throw new IllegalArgumentException("This post requested to delete does not belong to the user with username: " + member.userId());
         }
 
-        s3Service.deleteFile(post.getFile());
+        deletePostAndObjects(post);
+        TransactionHooks.afterCommit(() -> feedRankIndex.remove(postId));
+    }
+
+    // Drops the post's reference to its image, ContentObjectService deletes the object and its variants once no post
+    // or photo refers to it anymore. Images stored before deduplication belong to this post alone and go to the outbox
+    // straight away. Storage is never called here, variant keys are queued even if they were never stored.
+    private void deletePostAndObjects(Post post) {
+        if (!contentObjects.release(post.getFile())) {
+            objectDeletionOutbox.enqueue(ImageVariant.keysWithVariants(post.getFile()));
+        }
         postDao.delete(post);
     }
 
     // Add a new Comment for a Post or a reply for an already existing comment
     @Transactional
-    public Comment addComment(CommentNewDto dto, Long postId) {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
+    public Comment addComment(CurrentMember member, CommentNewDto dto, Long postId) {
 
         Post post = postDao.findById(postId).orElseThrow(() -> new NoSuchElementException("Could not find post with Id: " + postId));
 
         Comment newComment = new Comment();
         newComment.setPost(post);
         newComment.setContent(dto.getComment());
-        newComment.setUser(user);
+        newComment.setUser(memberDao.getReferenceById(member.userId()));
 
         if (dto.getReplyTo() != null) {
             Comment replyTo = commentDao.findById(dto.getReplyTo()).orElseThrow(() -> new NoSuchElementException("Could not find comment with Id: " + dto.getReplyTo()));
             newComment.setParent(replyTo);
         }
 
-        return commentDao.save(newComment);
+        Comment savedComment = commentDao.save(newComment);
+        postDao.adjustCommentCount(post.getId(), 1);
+        if (newComment.getParent() != null) {
+            commentDao.adjustReplyCount(newComment.getParent().getId(), 1);
+        }
+
+        return savedComment;
     }
 
 
     // Delete existing Comment
     @Transactional
-    public void deleteComment(Long commentId) {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
+    public void deleteComment(CurrentMember member, Long commentId) {
 
         Comment comment = commentDao.findById(commentId).orElseThrow(() -> new NoSuchElementException("Could not find comment with Id: " + commentId));
 
-        if (!comment.getUser().getUserId().equals(user.getUserId())) {
-            throw new IllegalArgumentException("This comment requested to delete does not belong to the user with username: " + user.getUserId());
+        if (!comment.getUser().getUserId().equals(member.userId())) {
+            throw new IllegalArgumentException("This comment requested to delete does not belong to the user with username: " + member.userId());
         }
 
+        Long postId = comment.getPost().getId();
+        Comment parent = comment.getParent();
         commentDao.delete(comment);
+        postDao.recountComments(postId);
+        if (parent != null) {
+            commentDao.adjustReplyCount(parent.getId(), -1);   // Only direct replies are counted, the subtree goes with the comment
+        }
     }
 
-    @Transactional
-    public Map<String, Object> getAllCommentsForPost(Long postId) {
+    // Loads the whole thread with a single query and rebuilds the reply tree in memory.
+    // With maxDepth set, comments at that depth keep an empty replies list and only report how many replies sit below them.
+    @Transactional(readOnly = true)
+    public Map<String, Object> getAllCommentsForPost(Long postId, Integer maxDepth) {
+        if (maxDepth != null && maxDepth < 0) {
+            throw new IllegalArgumentException("Max depth cannot be negative when fetching comments");
+        }
+
         Post post = postDao.findById(postId)
                 .orElseThrow(() -> new NoSuchElementException("Could not find post with Id: " + postId));
 
-        List<Comment> parentComments = commentDao.findAllByPost_IdAndParentIsNullOrderByCreatedAtDesc(post.getId());
+        List<CommentRowDto> rows = commentDao.findRowsByPostId(post.getId());
 
+        Map<Long, CommentNode> nodes = new HashMap<>(rows.size() * 2);
+        for (CommentRowDto row : rows) {
+            nodes.put(row.id(), new CommentNode(row));
+        }
+
+        // Rows come oldest first, so replies end up oldest first and top level comments are reversed to newest first
+        List<CommentNode> topLevel = new ArrayList<>();
+        for (CommentRowDto row : rows) {
+            CommentNode node = nodes.get(row.id());
+            CommentNode parent = row.parentId() == null ? null : nodes.get(row.parentId());
+            if (parent != null) {
+                parent.replies.add(node);
+            } else {
+                topLevel.add(node);
+            }
+        }
+
+        int depthLimit = maxDepth == null ? Integer.MAX_VALUE : maxDepth;
         return Map.of(
-                "comments", parentComments.stream()
-                        .map(this::convertCommentToMap)
+                "comments", topLevel.reversed().stream()
+                        .map(node -> convertCommentToMap(node, 0, depthLimit))
                         .toList(),
-                "commentCount", commentDao.getTotalCommentsForPost(post.getId())
+                "commentCount", post.getCommentCount()
         );
     }
 
-    private Map<String, Object> convertCommentToMap(Comment comment) {
+    // One page of a post's top level comments, newest first. Replies are loaded per comment through getRepliesPage.
+    @Transactional(readOnly = true)
+    public CommentPageDto getCommentsPage(Long postId, String cursor, Integer size) {
+        if (!postDao.existsById(postId)) {
+            throw new NoSuchElementException("Could not find post with Id: " + postId);
+        }
+
+        int pageSize = resolvePageSize(size, defaultCommentPageSize, maxCommentPageSize);
+        Limit limit = Limit.of(pageSize + 1);   // One extra row tells us whether there is a next page
+
+        CommentCursor after = (cursor == null || cursor.isBlank()) ? null : CommentCursor.decode(cursor.trim());
+        List<CommentItemDto> rows = after == null
+                ? commentDao.findTopLevelFirstPage(postId, limit)
+                : commentDao.findTopLevelAfter(postId, after.createdAt(), after.id(), limit);
+
+        return toCommentPage(rows, pageSize);
+    }
+
+    // One page of the direct replies of a comment, oldest first
+    @Transactional(readOnly = true)
+    public CommentPageDto getRepliesPage(Long commentId, String cursor, Integer size) {
+        if (!commentDao.existsById(commentId)) {
+            throw new NoSuchElementException("Could not find comment with Id: " + commentId);
+        }
+
+        int pageSize = resolvePageSize(size, defaultCommentPageSize, maxCommentPageSize);
+        Limit limit = Limit.of(pageSize + 1);
+
+        CommentCursor after = (cursor == null || cursor.isBlank()) ? null : CommentCursor.decode(cursor.trim());
+        List<CommentItemDto> rows = after == null
+                ? commentDao.findRepliesFirstPage(commentId, limit)
+                : commentDao.findRepliesAfter(commentId, after.createdAt(), after.id(), limit);
+
+        return toCommentPage(rows, pageSize);
+    }
+
+    private CommentPageDto toCommentPage(List<CommentItemDto> rows, int pageSize) {
+        if (rows.size() <= pageSize) {
+            return new CommentPageDto(rows, null);
+        }
+
+        List<CommentItemDto> comments = rows.subList(0, pageSize);
+        CommentItemDto last = comments.getLast();
+        return new CommentPageDto(comments, new CommentCursor(last.createdAt(), last.id()).encode());
+    }
+
+    private static final class CommentNode {
+        private final CommentRowDto row;
+        private final List<CommentNode> replies = new ArrayList<>();
+
+        private CommentNode(CommentRowDto row) {
+            this.row = row;
+        }
+
+        private int countReplies() {
+            int count = replies.size();
+            for (CommentNode reply : replies) {
+                count += reply.countReplies();
+            }
+            return count;
+        }
+    }
+
+    private Map<String, Object> convertCommentToMap(CommentNode node, int depth, int maxDepth) {
         Map<String, Object> commentMap = new HashMap<>();
-        commentMap.put("id", comment.getId());
-        commentMap.put("text", comment.getContent());
+        commentMap.put("id", node.row.id());
+        commentMap.put("text", node.row.content());
+
+        if (depth >= maxDepth && !node.replies.isEmpty()) {
+            // Collapsed branch, the client expands it with a deeper request
+            commentMap.put("replies", List.of());
+            commentMap.put("replyCount", node.countReplies());
+            return commentMap;
+        }
 
         // Recursively converting and mapping replies
-        List<Map<String, Object>> repliesMap = comment.getReplies().stream()
-                .map(this::convertCommentToMap)
+        List<Map<String, Object>> repliesMap = node.replies.stream()
+                .map(reply -> convertCommentToMap(reply, depth + 1, maxDepth))
                 .toList();
 
         commentMap.put("replies", repliesMap);
@@ -137,140 +466,297 @@ public class PostService {
 
     // Add/Remove Like from Post (Toggle)
     @Transactional
-    public HashMap<String, Object> toggleLike(Long postId) {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
+    public HashMap<String, Object> toggleLike(CurrentMember member, Long postId) {
 
         Post post = postDao.findById(postId).orElseThrow(() -> new NoSuchElementException("Could not find post with Id: " + postId));
 
         boolean liked = false;
-        if (likeDao.existsByPost_IdAndUser_UserId(post.getId(), user.getUserId())){
-            likeDao.deleteByPost_IdAndUser_UserId(post.getId(), user.getUserId());
+        int delta;
+        if (likeDao.existsByPost_IdAndUser_UserId(post.getId(), member.userId())){
+            delta = -(int) likeDao.deleteByPost_IdAndUser_UserId(post.getId(), member.userId());
         } else {
             Like newLike = new Like();
             newLike.setPost(post);
-            newLike.setUser(user);
+            newLike.setUser(memberDao.getReferenceById(member.userId()));
             likeDao.save(newLike);
             liked = true;
+            delta = 1;
         }
+        int finalDelta = delta;
 
-        int likedCount = likeDao.getTotalLikesForPost(post.getId());
-
-        return new HashMap<>(Map.of(
+        // The counter column is written behind in batches, so the hot post row is never locked here.
+        // The delta is only handed over once the like row has committed, and the index moves the post by it rather than
+        // to a count read earlier, which concurrent likes or a flush may have changed since.
+        // The response is completed by that hook too: it runs at commit, before the caller gets the map.
+        HashMap<String, Object> result = new HashMap<>(Map.of(
                 "isNowLiked", liked,
-                "likeCount", likedCount
+                "likeCount", Math.max(0, likeCounterService.currentCount(post.getId(), post.getLikeCount()) + delta)
         ));
+        boolean isNowLiked = liked;
+        TransactionHooks.afterCommit(() -> {
+            feedRankIndex.adjustLikeCount(postId, finalDelta)
+                    .ifPresent(likeCount -> result.put("likeCount", likeCount));
+            membershipIndex.setLiked(member.userId(), postId, isNowLiked);
+        });
+
+        return result;
     }
 
     // Add/Remove Save from Post (Toggle)
     @Transactional
-    public boolean toggleSave(Long postId) {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
+    public boolean toggleSave(CurrentMember member, Long postId) {
 
         Post post = postDao.findById(postId).orElseThrow(() -> new NoSuchElementException("Could not find post with Id: " + postId));
 
-        if (saveDao.existsByPost_IdAndUser_UserId(post.getId(), user.getUserId())){
-            saveDao.deleteByPost_IdAndUser_UserId(post.getId(), user.getUserId());
-            return false;   // removed Save
+        boolean saved;
+        if (saveDao.existsByPost_IdAndUser_UserId(post.getId(), member.userId())){
+            saveDao.deleteByPost_IdAndUser_UserId(post.getId(), member.userId());
+            saved = false;   // removed Save
         } else {
             Save newSave = new Save();
             newSave.setPost(post);
-            newSave.setUser(user);
+            newSave.setUser(memberDao.getReferenceById(member.userId()));
             saveDao.save(newSave);
-            return true;    // added Save
+            saved = true;    // added Save
         }
+
+        TransactionHooks.afterCommit(() -> membershipIndex.setSaved(member.userId(), postId, saved));
+        return saved;
     }
 
 
-    @Transactional
-    public List<Map<String, Object>> getAllPosts() {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
-
-        List<Post> posts = postDao.findAllOrderByLikesAndCreatedAt();
-
-        return posts.stream()
-                .map(post -> {
-                    Map<String, Object> postMap = new HashMap<>();
-                    postMap.put("id", post.getId());
-                    postMap.put("username", post.getUser().getUserId());
-                    postMap.put("likeCount", likeDao.getTotalLikesForPost(post.getId()));
-                    postMap.put("img", s3Service.generatePreSignedUrl(post.getFile()));
-                    postMap.put("commentCount", commentDao.getTotalCommentsForPost(post.getId()));
-                    postMap.put("isLiked", likeDao.existsByPost_IdAndUser_UserId(post.getId(), user.getUserId()));
-                    postMap.put("isSaved", saveDao.existsByPost_IdAndUser_UserId(post.getId(), user.getUserId()));
-                    postMap.put("caption", post.getCaption());
-                    postMap.put("date", timeFormatter.toRelativeTime(post.getCreatedAt()));
-                    return postMap;
-                }).toList();
+    // Streams the whole ranked feed as a JSON array. Rows are read through a forward-only cursor (or in id batches
+    // from the feed index) and each item is written as soon as it is hydrated, so memory stays flat however many posts there are
+    @Transactional(readOnly = true)
+    public void writeAllPosts(CurrentMember member, OutputStream out) throws IOException {
+
+        PostMembershipIndex.Membership viewer = membershipIndex.forUser(member.userId());
+
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeStartArray();
+            if (feedRankIndex.isReady()) {
+                Iterator<Long> ids = feedRankIndex.ids();
+                List<Long> batch = new ArrayList<>(ID_BATCH_SIZE);
+                while (ids.hasNext()) {
+                    batch.add(ids.next());
+                    if (batch.size() == ID_BATCH_SIZE || !ids.hasNext()) {
+                        writeFeedItems(generator, findFeedRowsInOrder(batch).iterator(), viewer, false);
+                        batch.clear();
+                    }
+                }
+            } else {
+                try (Stream<PostFeedRowDto> rows = postDao.streamFeedRowsOrderByLikesAndCreatedAt()) {
+                    writeFeedItems(generator, rows.iterator(), viewer, false);
+                }
+            }
+            generator.writeEndArray();
+        }
     }
 
-    @Transactional
-    public List<Map<String, Object>> getAllPostsOfUser(String username) {
+    // One page of the ranked feed, continuing after the given cursor (or from the top when cursor is empty)
+    @Transactional(readOnly = true)
+    public PostFeedPageDto getFeedPage(CurrentMember member, String cursor, Integer size) {
+
+        int pageSize = resolvePageSize(size, defaultPageSize, maxPageSize);
+        Limit limit = Limit.of(pageSize + 1);   // One extra row tells us whether there is a next page
+
+        FeedCursor after = (cursor == null || cursor.isBlank()) ? null : FeedCursor.decode(cursor.trim());
+
+        List<PostFeedRowDto> rows;
+        List<RankedRow> ranked = null;
+        if (feedRankIndex.isReady()) {
+            ranked = findRankedFeedRows(after, limit.max());   // Ranked in memory, fetched by primary key
+            rows = ranked.stream().map(RankedRow::row).toList();
+        } else if (after == null) {
+            rows = postDao.findFeedRowsFirstPage(limit);
+        } else {
+            rows = postDao.findFeedRowsAfter(after.likeCount(), after.createdAt(), after.id(), limit);
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<PostFeedItemDto> posts = toFeedItems(hasMore ? rows.subList(0, pageSize) : rows, member.userId());
+
+        String nextCursor = null;
+        if (hasMore) {
+            // Continues from the count the page was ranked by: the index's key, or the persisted column on the SQL path
+            PostFeedRowDto last = rows.get(pageSize - 1);
+            int lastLikeCount = ranked != null ? ranked.get(pageSize - 1).rankedLikeCount() : last.likeCount();
+            nextCursor = new FeedCursor(lastLikeCount, last.createdAt(), last.id()).encode();
+        }
+
+        return new PostFeedPageDto(posts, nextCursor);
+    }
+
+    // A feed row with the like count the index ranked it by
+    private record RankedRow(PostFeedRowDto row, int rankedLikeCount) {
+    }
+
+    // Up to wanted rows in index order after the cursor. Ids whose post is gone or not READY drop out of the rows, so
+    // the page is topped up from further down the ranking until it is full or the index runs out, otherwise a short
+    // page would read as the last one.
+    private List<RankedRow> findRankedFeedRows(FeedCursor after, int wanted) {
+        List<RankedRow> rows = new ArrayList<>(wanted);
+        Set<Long> seen = new HashSet<>();
+        int requested = wanted;
+        while (true) {
+            List<FeedRankIndex.RankKey> keys = feedRankIndex.page(after, requested);
+            Map<Long, Integer> rankedLikeCounts = new HashMap<>();
+            List<Long> unseen = new ArrayList<>(keys.size());
+            for (FeedRankIndex.RankKey key : keys) {
+                if (seen.add(key.postId())) {
+                    unseen.add(key.postId());
+                    rankedLikeCounts.put(key.postId(), key.likeCount());
+                }
+            }
+            for (PostFeedRowDto row : findFeedRowsInOrder(unseen)) {
+                if (rows.size() == wanted) {
+                    break;
+                }
+                rows.add(new RankedRow(row, rankedLikeCounts.get(row.id())));
+            }
+
+            if (rows.size() == wanted || keys.size() < requested) {
+                return rows;
+            }
+            requested = (int) Math.min(Integer.MAX_VALUE, 2L * requested);
+        }
+    }
+
+    // Loads the rows for ids coming from the feed index and puts them back in index order.
+    // Ids of posts deleted on another instance since the last index rebuild simply drop out.
+    private List<PostFeedRowDto> findFeedRowsInOrder(List<Long> ids) {
+        List<PostFeedRowDto> rows = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += ID_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + ID_BATCH_SIZE, ids.size()));
+
+            Map<Long, PostFeedRowDto> byId = new HashMap<>(batch.size() * 2);
+            for (PostFeedRowDto row : postDao.findFeedRowsByIds(batch)) {
+                byId.put(row.id(), row);
+            }
+            for (Long id : batch) {
+                PostFeedRowDto row = byId.get(id);
+                if (row != null) {
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private int resolvePageSize(Integer requested, int defaultSize, int maxSize) {
+        if (requested == null || requested <= 0) {
+            return defaultSize;
+        }
+        return Math.min(requested, maxSize);
+    }
+
+    @Transactional(readOnly = true)
+    public void writeAllPostsOfUser(CurrentMember member, String username, OutputStream out) throws IOException {
         if (username == null || username.isBlank()) {
             throw new IllegalArgumentException("Username cannot be empty inside service method when fetching posts for user");
         }
 
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member accessingUser = memberService.getUser(currentUser.getUsername());    // The logged in user
-
         Member user = memberService.getUser(username.trim());   // The user we are getting the posts of
 
-        List<Post> posts = postDao.findAllByUser_UserIdOrderByCreatedAtDesc(user.getUserId());
+        try (Stream<PostFeedRowDto> rows = postDao.streamFeedRowsByUser(user.getUserId())) {
+            writeFeed(out, rows, member.userId(), true);   // Like/save state is the logged in user's
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public void writeAllSavedPostsOfUser(CurrentMember member, OutputStream out) throws IOException {
 
-        return posts.stream()
-                .map(post -> {
-                    Map<String, Object> postMap = new HashMap<>();
-                    postMap.put("id", post.getId());
-                    postMap.put("username", post.getUser().getUserId());
-                    postMap.put("likeCount", likeDao.getTotalLikesForPost(post.getId()));
-                    postMap.put("img", s3Service.generatePreSignedUrl(post.getFile()));
-                    postMap.put("commentCount", commentDao.getTotalCommentsForPost(post.getId()));
-                    postMap.put("isLiked", likeDao.existsByPost_IdAndUser_UserId(post.getId(), accessingUser.getUserId()));
-                    postMap.put("isSaved", saveDao.existsByPost_IdAndUser_UserId(post.getId(), accessingUser.getUserId()));
-                    postMap.put("caption", post.getCaption());
-                    postMap.put("date", timeFormatter.toRelativeTime(post.getCreatedAt()));
-                    return postMap;
-                }).toList();
+        try (Stream<PostFeedRowDto> rows = postDao.streamFeedRowsSavedByUser(member.userId())) {
+            writeFeed(out, rows, member.userId(), true);
+        }
     }
 
-    @Transactional
-    public List<Map<String, Object>> getAllSavedPostsOfUser() {
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
-
-        List<Post> posts = postDao.findAllBySaves_User_UserIdOrderBySaves_CreatedAtDesc(user.getUserId());
-
-        return posts.stream()
-                .map(post -> {
-                    Map<String, Object> postMap = new HashMap<>();
-                    postMap.put("id", post.getId());
-                    postMap.put("username", post.getUser().getUserId());
-                    postMap.put("likeCount", likeDao.getTotalLikesForPost(post.getId()));
-                    postMap.put("img", s3Service.generatePreSignedUrl(post.getFile()));
-                    postMap.put("commentCount", commentDao.getTotalCommentsForPost(post.getId()));
-                    postMap.put("isLiked", likeDao.existsByPost_IdAndUser_UserId(post.getId(), user.getUserId()));
-                    postMap.put("isSaved", saveDao.existsByPost_IdAndUser_UserId(post.getId(), user.getUserId()));
-                    postMap.put("caption", post.getCaption());
-                    postMap.put("date", timeFormatter.toRelativeTime(post.getCreatedAt()));
-                    return postMap;
-                }).toList();
+    // grid adds the THUMB sized image of each post, for the profile grid
+    private void writeFeed(OutputStream out, Stream<PostFeedRowDto> rows, String viewerId, boolean grid) throws IOException {
+        PostMembershipIndex.Membership viewer = membershipIndex.forUser(viewerId);
+
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeStartArray();
+            writeFeedItems(generator, rows.iterator(), viewer, grid);
+            generator.writeEndArray();
+        }
+    }
+
+    // A failure half way through must not get closed off into a valid looking but truncated array
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return objectMapper.createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+    }
+
+    private void writeFeedItems(JsonGenerator generator, Iterator<PostFeedRowDto> rows, PostMembershipIndex.Membership viewer, boolean grid) throws IOException {
+        List<PostFeedRowDto> batch = new ArrayList<>(PRESIGN_BATCH_SIZE);
+        while (rows.hasNext()) {
+            batch.add(rows.next());
+            if (batch.size() == PRESIGN_BATCH_SIZE || !rows.hasNext()) {
+                Map<String, String> imageUrls = presignImages(batch, grid);
+                for (PostFeedRowDto row : batch) {
+                    generator.writeObject(toFeedItem(row, viewer, imageUrls, grid));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    // Hydrates a list of posts without any per-post queries, counts come from the denormalized columns on the row
+    // and the viewer's like/save state from the in-memory membership index
+    private List<PostFeedItemDto> toFeedItems(List<PostFeedRowDto> rows, String viewerId) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+
+        PostMembershipIndex.Membership viewer = membershipIndex.forUser(viewerId);
+
+        Map<String, String> imageUrls = presignImages(rows, false);
+
+        return rows.stream().map(row -> toFeedItem(row, viewer, imageUrls, false)).toList();
+    }
+
+    private Map<String, String> presignImages(List<PostFeedRowDto> rows, boolean grid) {
+        List<String> keys = new ArrayList<>(grid ? 2 * rows.size() : rows.size());
+        for (PostFeedRowDto row : rows) {
+            keys.add(imageKey(row, ImageVariant.CARD));
+            if (grid) {
+                keys.add(imageKey(row, ImageVariant.THUMB));
+            }
+        }
+        return blobStorage.getImageUrls(keys);
+    }
+
+    // The variant once it exists, the original (up to the multipart limit) until then
+    private static String imageKey(PostFeedRowDto row, ImageVariant variant) {
+        return row.variantsReady() ? variant.keyFor(row.file()) : row.file();
+    }
+
+    private PostFeedItemDto toFeedItem(PostFeedRowDto row, PostMembershipIndex.Membership viewer, Map<String, String> imageUrls, boolean grid) {
+        return new PostFeedItemDto(
+                row.id(),
+                row.username(),
+                likeCounterService.currentCount(row.id(), row.likeCount()),
+                imageUrls.get(imageKey(row, ImageVariant.CARD)),
+                row.commentCount(),
+                viewer.isLiked(row.id()),
+                viewer.isSaved(row.id()),
+                row.caption(),
+                timeFormatter.toRelativeTime(row.createdAt()),
+                grid ? imageUrls.get(imageKey(row, ImageVariant.THUMB)) : null
+        );
     }
 
     @Transactional
-    public Post updateCaption(Long postId, String caption) {
+    public Post updateCaption(CurrentMember member, Long postId, String caption) {
         if (caption == null || caption.isBlank()) {
             throw new IllegalArgumentException("Caption is empty inside service method, please enter valid caption");
         }
 
-        UserDetails currentUser = (UserDetails) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        Member user = memberService.getUser(currentUser.getUsername());
 
         Post post = postDao.findById(postId).orElseThrow(() -> new NoSuchElementException("Could not find post with Id: " + postId));
 
-        if (!user.getUserId().equals(post.getUser().getUserId())) {
-            throw new IllegalArgumentException("This the post requested to update caption does not belong to the user with username: " + user.getUserId());
+        if (!member.userId().equals(post.getUser().getUserId())) {
+            throw new IllegalArgumentException("This the post requested to update caption does not belong to the user with username: " + member.userId());
         }
 
         post.setCaption(caption);
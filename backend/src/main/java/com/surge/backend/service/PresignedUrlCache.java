@@ -0,0 +1,71 @@
+package com.surge.backend.service;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// Presigned GET urls by object key. The signature is valid for longer than an entry may live in the cache,
+// so every url handed out still has at least (signatureDuration - ttl) left. Entries are re-signed in the
+// background once they are refreshAfter old, and concurrent misses on the same key share one signing call.
+public class PresignedUrlCache {
+    private final LoadingCache<String, String> urls;
+    private final Duration minimumRemainingValidity;
+
+    public PresignedUrlCache(Function<String, String> signer,
+                             Duration signatureDuration,
+                             Duration ttl,
+                             Duration refreshAfter,
+                             long maxSize,
+                             MeterRegistry meterRegistry) {
+        if (signatureDuration.compareTo(ttl) <= 0) {
+            throw new IllegalArgumentException("Presigned url signature duration must be longer than the cache ttl");
+        }
+        if (refreshAfter.compareTo(ttl) >= 0) {
+            throw new IllegalArgumentException("Presigned url refresh interval must be shorter than the cache ttl");
+        }
+
+        this.minimumRemainingValidity = signatureDuration.minus(ttl);
+        this.urls = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .refreshAfterWrite(refreshAfter)
+                .expireAfterWrite(ttl)  // Hard cap, an entry that was not refreshed in time is signed again on the next read
+                .recordStats()
+                .build(new CacheLoader<>() {
+                    @Override
+                    public String load(String objectKey) {
+                        return signer.apply(objectKey);
+                    }
+
+                    // Misses of a bulk lookup are signed in parallel, signing is pure CPU work with no I/O
+                    @Override
+                    public Map<String, String> loadAll(Set<? extends String> objectKeys) {
+                        Map<String, String> signed = new ConcurrentHashMap<>(objectKeys.size() * 2);
+                        objectKeys.parallelStream().forEach(objectKey -> signed.put(objectKey, signer.apply(objectKey)));
+                        return signed;
+                    }
+                });
+        CaffeineCacheMetrics.monitor(meterRegistry, urls, "presignedUrls");
+    }
+
+    public String get(String objectKey) {
+        return urls.get(objectKey);
+    }
+
+    // Cached keys are answered in one pass, only the missing ones go to the signer
+    public Map<String, String> getAll(Collection<String> objectKeys) {
+        return urls.getAll(objectKeys);
+    }
+
+    public Duration getMinimumRemainingValidity() {
+        return minimumRemainingValidity;
+    }
+}
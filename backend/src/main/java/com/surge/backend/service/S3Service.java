@@ -1,105 +1,189 @@
 package com.surge.backend.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.util.UriUtils;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
+// Bucket storage, the default backend. Urls are presigned (and cached) or go through the image proxy.
 @Service
-public class S3Service {
+@ConditionalOnProperty(name = "storage.backend", havingValue = "s3", matchIfMissing = true)
+public class S3Service implements BlobStorage {
     private final S3Client s3Client;
     private final String bucketName;
     private final String region;
 
     private final S3Presigner s3Presigner;
+    private final Duration signatureDuration;
+    private final Duration uploadSignatureDuration;
+    private final PresignedUrlCache presignedUrls;
+
+    private final boolean imageProxyEnabled;
+    private final String imageProxyBaseUrl;
 
     public S3Service(S3Client s3Client,
                      S3Presigner s3Presigner,
                      @Value("${aws.s3.bucket}") String bucketName,
-                     @Value("${aws.s3.region}") String region) {
+                     @Value("${aws.s3.region}") String region,
+                     @Value("${aws.s3.presign.signature-duration:30m}") Duration signatureDuration,
+                     @Value("${aws.s3.presign.cache-ttl:15m}") Duration cacheTtl,
+                     @Value("${aws.s3.presign.refresh-after:10m}") Duration refreshAfter,
+                     @Value("${aws.s3.presign.cache-max-size:10000}") long cacheMaxSize,
+                     @Value("${aws.s3.presign.upload-duration:10m}") Duration uploadSignatureDuration,
+                     @Value("${images.proxy.enabled:false}") boolean imageProxyEnabled,
+                     @Value("${images.proxy.base-url:}") String imageProxyBaseUrl,
+                     MeterRegistry meterRegistry) {
         this.s3Client = s3Client;
         this.bucketName = bucketName;
         this.region = region;
         this.s3Presigner = s3Presigner;
+        this.signatureDuration = signatureDuration;
+        this.uploadSignatureDuration = uploadSignatureDuration;
+        this.presignedUrls = new PresignedUrlCache(this::presignGetUrl, signatureDuration, cacheTtl, refreshAfter, cacheMaxSize, meterRegistry);
+        this.imageProxyEnabled = imageProxyEnabled;
+        this.imageProxyBaseUrl = imageProxyBaseUrl;
     }
 
+    // Blocking put of a staged local file, callers must not hold a database transaction while this runs
+    @Override
+    public void uploadFile(String key, Path source, String contentType) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("File key cannot be null or empty");
+        }
 
-    // For organizing objects in folders in S3
-    public enum ImageType {
-        PROFILE_PHOTO("profile-photos"),    // Will become: username/profile-photos/image.jpg
-        PROFILE_POSTS("profile-posts");     // Will become: username/profile-posts/image.jpg
+        try {
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .contentType(contentType)
+                    .build();
 
-        private final String folder;
+            s3Client.putObject(putObjectRequest, RequestBody.fromFile(source));
+        } catch (S3Exception e) {
+            throw new RuntimeException("Failed to upload file to S3: " + e.getMessage(), e);
+        }
+    }
 
-        ImageType(String folder) {
-            this.folder = folder;
+    // Url clients should load an image from. With the image proxy enabled that is a stable url on this backend
+    // (so browsers can cache it for good), otherwise a presigned S3 url.
+    @Override
+    public String getImageUrl(String objectKey) {
+        if (!imageProxyEnabled) {
+            return generatePreSignedUrl(objectKey);
+        }
+        if (objectKey == null || objectKey.isBlank()) {
+            throw new IllegalArgumentException("Object key must not be null or empty");
         }
+        return imageProxyBaseUrl + "/api/images/" + UriUtils.encodePath(objectKey, StandardCharsets.UTF_8);
+    }
 
-        public String getFolder() {
-            return folder;
+    @Override
+    public Map<String, String> getImageUrls(Collection<String> objectKeys) {
+        if (!imageProxyEnabled) {
+            return generatePreSignedUrls(objectKeys);
         }
+        Map<String, String> urls = new HashMap<>(objectKeys.size() * 2);
+        for (String objectKey : objectKeys) {
+            urls.put(objectKey, getImageUrl(objectKey));
+        }
+        return urls;
     }
 
+    // Served from the presigned url cache, the url is always valid for at least signature-duration minus cache-ttl
+    public String generatePreSignedUrl(String objectKey) {
+        if (objectKey == null || objectKey.isBlank()) {
+            throw new IllegalArgumentException("Object key must not be null or empty");
+        }
+        return presignedUrls.get(objectKey);
+    }
 
-    public String uploadFile(MultipartFile file, ImageType imageType, String username) {
-        if (file == null || file.isEmpty()) {
-            throw new IllegalArgumentException("File must not be null or empty");
+    // Key -> url for a whole page of objects in one call, keys missing from the cache are signed in parallel
+    public Map<String, String> generatePreSignedUrls(Collection<String> objectKeys) {
+        for (String objectKey : objectKeys) {
+            if (objectKey == null || objectKey.isBlank()) {
+                throw new IllegalArgumentException("Object keys must not be null or empty");
+            }
         }
-        if (username == null || username.trim().isEmpty()) {
-            throw new IllegalArgumentException("Username must not be null or empty");
+        if (objectKeys.isEmpty()) {
+            return Map.of();
         }
+        return presignedUrls.getAll(objectKeys);
+    }
 
-        // Image validation
-        String contentType = file.getContentType();
-        if (contentType == null || !contentType.startsWith("image/")) {
-            throw new IllegalArgumentException("File must be an image");
+    // Lets the client upload straight to the bucket. Content-Type, Content-Length and x-amz-checksum-sha256 are part of
+    // the signature, so S3 rejects a PUT with any other type, size or content.
+    @Override
+    public PresignedUpload presignUpload(String key, String contentType, long contentLength, String sha256) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("File key cannot be null or empty");
         }
 
-        try {
-            // Generate filename with username as the root folder
-            String fileName = username + "/" +
-                    imageType.getFolder() + "/" +
-                    generateUniqueFileName(file.getOriginalFilename());
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .contentLength(contentLength)
+                .checksumSHA256(BlobStorage.checksumSha256(sha256))
+                .build();
 
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(fileName)
-                    .contentType(file.getContentType())
-                    .build();
+        PutObjectPresignRequest presignRequest = PutObjectPresignRequest.builder()
+                .signatureDuration(uploadSignatureDuration)
+                .putObjectRequest(putObjectRequest)
+                .build();
 
-            s3Client.putObject(putObjectRequest,
-                    RequestBody.fromInputStream(file.getInputStream(),
-                            file.getSize()));
+        PresignedPutObjectRequest presignedRequest = s3Presigner.presignPutObject(presignRequest);
+        return new PresignedUpload(presignedRequest.url().toExternalForm(), presignedRequest.expiration());
+    }
 
-            return fileName;
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to upload file to S3: " + e.getMessage(), e);
+    // Metadata of an object without downloading it
+    @Override
+    public StoredObject headFile(String key) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("File key cannot be null or empty");
         }
-    }
 
-    @Cacheable(value = "presignedUrls",
-            key = "#objectKey",
-            unless = "#result == null")
-    public String generatePreSignedUrl(String objectKey) {
+        try {
+            HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build());
+            return new StoredObject(response.contentType(), response.eTag(), response.contentLength());
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchElementException("Could not find file with key: " + key);
+        } catch (S3Exception e) {
+            throw new RuntimeException("Failed to read file metadata from S3: " + e.getMessage(), e);
+        }
+    }
 
+    private String presignGetUrl(String objectKey) {
         GetObjectRequest objectRequest = GetObjectRequest.builder()
                 .bucket(bucketName)
                 .key(objectKey)
                 .build();
 
         GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(Duration.ofMinutes(10))  // The URL will expire in 10 minutes.
+                .signatureDuration(signatureDuration)  // Longer than the cache keeps it, see PresignedUrlCache
                 .getObjectRequest(objectRequest)
                 .build();
 
@@ -109,34 +193,92 @@ public class S3Service {
 
     }
 
-    public void deleteFile(String key) {
+    @Override
+    public void uploadFile(String key, byte[] content, String contentType) {
         if (key == null || key.trim().isEmpty()) {
             throw new IllegalArgumentException("File key cannot be null or empty");
         }
 
         try {
-
-            // Check if file exists before deleting, as this returns object metadata without downloading the object
-            HeadObjectRequest headObjectRequest = HeadObjectRequest.builder()
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                     .bucket(bucketName)
                     .key(key)
+                    .contentType(contentType)
                     .build();
 
-            try {
-                s3Client.headObject(headObjectRequest);
-            } catch (NoSuchKeyException e) {
-                throw new RuntimeException("File does not exist in S3");
+            s3Client.putObject(putObjectRequest, RequestBody.fromBytes(content));
+        } catch (S3Exception e) {
+            throw new RuntimeException("Failed to upload file to S3: " + e.getMessage(), e);
+        }
+    }
+
+    // Cleanup of objects nothing refers to (anymore), deleting a missing key is not an error
+    @Override
+    public void deleteFileIfExists(String key) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("File key cannot be null or empty");
+        }
+
+        try {
+            s3Client.deleteObject(DeleteObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build());
+        } catch (S3Exception e) {
+            throw new RuntimeException("Failed to delete file from S3: " + e.getMessage(), e);
+        }
+    }
+
+    // One round trip for up to 1000 keys. Missing keys count as deleted. Returns key -> error for the keys S3 could not delete.
+    @Override
+    public Map<String, String> deleteFiles(Collection<String> keys) {
+        if (keys.size() > MAX_DELETE_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_DELETE_BATCH_SIZE + " keys can be deleted at once");
+        }
+        if (keys.isEmpty()) {
+            return Map.of();
+        }
+
+        List<ObjectIdentifier> objects = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            objects.add(ObjectIdentifier.builder().key(key).build());
+        }
+
+        try {
+            DeleteObjectsResponse response = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucketName)
+                    .delete(Delete.builder().objects(objects).quiet(true).build())   // Quiet: only errors are listed
+                    .build());
+
+            Map<String, String> failed = new HashMap<>();
+            for (S3Error error : response.errors()) {
+                failed.put(error.key(), error.code() + ": " + error.message());
             }
+            return failed;
+        } catch (S3Exception e) {
+            throw new RuntimeException("Failed to delete files from S3: " + e.getMessage(), e);
+        }
+    }
+
+    // Streams the object into target, which must not exist yet
+    @Override
+    public StoredObject downloadFile(String key, Path target) {
+        if (key == null || key.trim().isEmpty()) {
+            throw new IllegalArgumentException("File key cannot be null or empty");
+        }
 
-            // Delete the file
-            DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder()
+        try {
+            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                     .bucket(bucketName)
                     .key(key)
                     .build();
 
-            s3Client.deleteObject(deleteObjectRequest);
+            GetObjectResponse response = s3Client.getObject(getObjectRequest, ResponseTransformer.toFile(target));
+            return new StoredObject(response.contentType(), response.eTag(), response.contentLength());
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchElementException("Could not find file with key: " + key);
         } catch (S3Exception e) {
-            throw new RuntimeException("Failed to delete file from S3: " + e.getMessage(), e);
+            throw new RuntimeException("Failed to download file from S3: " + e.getMessage(), e);
         }
     }
 
@@ -180,97 +322,47 @@ public class S3Service {
         }
     }
 
-    public void cleanupBucketFolders() {
+    // One page (up to 1000 keys) of the objects under prefix, continuationToken is null for the first page
+    @Override
+    public ObjectPage listObjects(String prefix, String continuationToken) {
         try {
-            // List all image type folders we want to clean
-            List<String> foldersToClean = new ArrayList<>();
-            for (ImageType imageType : ImageType.values()) {
-                foldersToClean.add(imageType.getFolder());
-            }
-
-            // List all objects in the bucket
-            ListObjectsV2Request listRequest = ListObjectsV2Request.builder()
+            ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
                     .bucket(bucketName)
-                    .build();
-
-            ListObjectsV2Response listResponse;
-            do {
-                listResponse = s3Client.listObjectsV2(listRequest);
-
-                if (!listResponse.contents().isEmpty()) {
-                    // Prepare batch delete request
-                    List<ObjectIdentifier> objectsToDelete = new ArrayList<>();
-
-                    // Only delete objects that are in our designated folders
-                    for (S3Object s3Object : listResponse.contents()) {
-                        String key = s3Object.key();
-                        // Check if the object is in any of our image folders
-                        for (String folder : foldersToClean) {
-                            if (key.contains("/" + folder + "/")) {
-                                objectsToDelete.add(ObjectIdentifier.builder()
-                                        .key(key)
-                                        .build());
-                                break;
-                            }
-                        }
-                    }
-
-                    if (!objectsToDelete.isEmpty()) {
-                        // Delete the batch of objects
-                        DeleteObjectsRequest deleteRequest = DeleteObjectsRequest.builder()
-                                .bucket(bucketName)
-                                .delete(Delete.builder()
-                                        .objects(objectsToDelete)
-                                        .quiet(false)
-                                        .build())
-                                .build();
-
-                        DeleteObjectsResponse deleteResponse = s3Client.deleteObjects(deleteRequest);
-
-                        // Check for errors
-                        if (!deleteResponse.errors().isEmpty()) {
-                            List<String> errorMessages = deleteResponse.errors().stream()
-                                    .map(error -> error.key() + ": " + error.message())
-                                    .toList();
-                            System.err.println("Failed to delete some objects: "
-                                    + String.join(", ", errorMessages));
-                        } else {
-                            System.out.println("Successfully deleted " + objectsToDelete.size()
-                                    + " objects");
-                        }
-                    }
-                }
-
-                // Update the list request with the continuation token
-                listRequest = ListObjectsV2Request.builder()
-                        .bucket(bucketName)
-                        .continuationToken(listResponse.nextContinuationToken())
-                        .build();
-
-            } while (listResponse.isTruncated());
-
-            System.out.println("Bucket cleanup completed successfully");
+                    .prefix(prefix)
+                    .continuationToken(continuationToken)
+                    .build());
 
+            List<String> keys = new ArrayList<>(response.contents().size());
+            for (S3Object s3Object : response.contents()) {
+                keys.add(s3Object.key());
+            }
+            return new ObjectPage(keys, response.isTruncated() ? response.nextContinuationToken() : null);
         } catch (S3Exception e) {
-            throw new RuntimeException("Failed to cleanup S3 bucket folders: " + e.getMessage(), e);
+            throw new RuntimeException("Failed to list S3 objects under " + prefix + ": " + e.getMessage(), e);
         }
     }
 
-    private String generateUniqueFileName(String originalFilename) {
-        if (originalFilename == null) {
-            return System.currentTimeMillis() + "_file";
+    // The "folders" directly below prefix, e.g. every user folder for an empty prefix. Each ends with a slash.
+    @Override
+    public List<String> listChildPrefixes(String prefix) {
+        List<String> prefixes = new ArrayList<>();
+        String continuationToken = null;
+        try {
+            do {
+                ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                        .bucket(bucketName)
+                        .prefix(prefix)
+                        .delimiter("/")
+                        .continuationToken(continuationToken)
+                        .build());
+                for (CommonPrefix commonPrefix : response.commonPrefixes()) {
+                    prefixes.add(commonPrefix.prefix());
+                }
+                continuationToken = response.isTruncated() ? response.nextContinuationToken() : null;
+            } while (continuationToken != null);
+        } catch (S3Exception e) {
+            throw new RuntimeException("Failed to list S3 prefixes under " + prefix + ": " + e.getMessage(), e);
         }
-        return System.currentTimeMillis() + "_" + originalFilename.replaceAll("[^a-zA-Z0-9.-]", "_");
-        /*
-        Replaces any character that is NOT (that's what ^ means):
-
-        a-z: lowercase letters
-        A-Z: uppercase letters
-        0-9: numbers
-        .: period
-        -: hyphen
-
-        Replaces these special characters with underscore _
-         */
+        return prefixes;
     }
 }
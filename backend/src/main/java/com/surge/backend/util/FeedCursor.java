@@ -0,0 +1,31 @@
+package com.surge.backend.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+// Position in the ranked feed, (likeCount, createdAt, id) of the last post a client has seen.
+// Handed out as an opaque url-safe string so clients cannot depend on its layout.
+public record FeedCursor(int likeCount, LocalDateTime createdAt, long id) {
+
+    private static final String SEPARATOR = "|";
+
+    public String encode() {
+        String raw = likeCount + SEPARATOR + createdAt + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static FeedCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid feed cursor");
+            }
+            return new FeedCursor(Integer.parseInt(parts[0]), LocalDateTime.parse(parts[1]), Long.parseLong(parts[2]));
+        } catch (DateTimeParseException | IllegalArgumentException e) {  // NumberFormatException is an IllegalArgumentException
+            throw new IllegalArgumentException("Invalid feed cursor", e);
+        }
+    }
+}
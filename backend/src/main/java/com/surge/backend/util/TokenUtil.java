@@ -1,7 +1,11 @@
 package com.surge.backend.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
@@ -13,33 +17,110 @@ import org.springframework.http.ResponseCookie;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class TokenUtil {
     private static final Logger logger = LoggerFactory.getLogger(TokenUtil.class);
     public static final long JWT_TOKEN_VALIDITY = 7 * 60 * 60; // 7 hours
+    public static final String VERIFIED_TOKEN_ATTRIBUTE = TokenUtil.class.getName() + ".verifiedToken";   // Set by JwtRequestFilter
 
     @Value("${jwt.secret}")
     private String secret;
 
+    @Value("${jwt.verified-cache.max-size:10000}")
+    private long verifiedCacheMaxSize = 10_000;
+
+    // Tokens are only reissued once they have less than this left, instead of on every /me call
+    @Value("${jwt.refresh-threshold:1h}")
+    private Duration refreshThreshold = Duration.ofHours(1);
+
     private Key key;
 
+    private JwtParser parser;
+
+    // Tokens whose signature already checked out, keyed by a digest of the token and dropped once the token expires
+    private Cache<String, VerifiedToken> verifiedTokens;
+
+    // What the rest of the app needs from a token that passed signature and expiry checks
+    public record VerifiedToken(String username, Date expiration) {
+        public boolean isExpired() {
+            return expiration.before(new Date());
+        }
+    }
+
     @PostConstruct
     public void init() {
         this.key = Keys.hmacShaKeyFor(secret.getBytes());
+        this.parser = Jwts.parserBuilder()  // Thread safe, so it is built once and reused for every request
+                .setSigningKey(key)
+                .build();
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(verifiedCacheMaxSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String digest, VerifiedToken token, long currentTime) {
+                        long remainingMillis = token.expiration().getTime() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remainingMillis));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String digest, VerifiedToken token, long currentTime, long currentDuration) {
+                        return expireAfterCreate(digest, token, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String digest, VerifiedToken token, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    // Parses and verifies the token once, repeated calls with the same token are answered from the cache
+    // without touching the signature. Throws the usual JwtException subtypes for invalid or expired tokens.
+    public VerifiedToken verifyToken(String token) {
+        if (token == null || token.isBlank()) {
+            throw new IllegalArgumentException("JWT token is empty");
+        }
+
+        String digest = digest(token);
+        VerifiedToken cached = verifiedTokens.getIfPresent(digest);
+        if (cached != null && !cached.isExpired()) {
+            return cached;
+        }
+
+        Claims claims = getAllClaimsFromToken(token);
+        VerifiedToken verified = new VerifiedToken(claims.getSubject(), claims.getExpiration());
+        verifiedTokens.put(digest, verified);
+        return verified;
+    }
+
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);   // Every JVM has to ship it
+        }
     }
 
     public String getUsernameFromToken(String token) {
-        return (String) getClaimFromToken(token, "sub");
+        return verifyToken(token).username();
     }
 
     public Date getExpirationDateFromToken(String token) {
-        Number expiration = (Number) getClaimFromToken(token, "exp");
-        return new Date(expiration.longValue() * 1000);
+        return verifyToken(token).expiration();
     }
 
     public Object getClaimFromToken(String token, String claimName) {
@@ -49,22 +130,13 @@ public class TokenUtil {
 
     private Claims getAllClaimsFromToken(String token) {
         try {
-            return Jwts.parserBuilder()
-                    .setSigningKey(key)
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
+            return parser.parseClaimsJws(token).getBody();
         } catch (JwtException e) {
             logger.error("Failed to parse JWT token", e);
             throw e;
         }
     }
 
-    private Boolean isTokenExpired(String token) {
-        final Date expiration = getExpirationDateFromToken(token);
-        return expiration.before(new Date());
-    }
-
     public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();   // For any custom claims, if needed can add them, for now it is empty
         return doGenerateToken(claims, userDetails.getUsername());
@@ -80,14 +152,17 @@ public class TokenUtil {
                 .compact();
     }
 
-    public Boolean validateToken(String token, UserDetails userDetails) {
-        try {
-            final String username = getUsernameFromToken(token);
-            return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
-        } catch (JwtException e) {
-            logger.error("Invalid JWT token", e);
-            return false;
+    public Boolean validateToken(VerifiedToken token, UserDetails userDetails) {
+        return token.username().equals(userDetails.getUsername()) && !token.isExpired();
+    }
+
+    // Sliding refresh, true when the token is missing or close enough to expiry that a new one should be issued
+    public boolean shouldRefresh(VerifiedToken token) {
+        if (token == null) {
+            return true;
         }
+        long remainingMillis = token.expiration().getTime() - System.currentTimeMillis();
+        return remainingMillis < refreshThreshold.toMillis();
     }
 
     public ResponseCookie refreshToken(UserDetails userDetails) {
@@ -1,29 +1,84 @@
 package com.surge.backend;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.surge.backend.controller.ImageController;
+import com.surge.backend.controller.LocalBlobController;
 import com.surge.backend.dao.*;
+import com.surge.backend.dto.CommentItemDto;
 import com.surge.backend.dto.CommentNewDto;
+import com.surge.backend.dto.CommentPageDto;
+import com.surge.backend.dto.CommentRowDto;
+import com.surge.backend.dto.PostFeedItemDto;
+import com.surge.backend.dto.PostFeedPageDto;
+import com.surge.backend.dto.PostFeedRowDto;
+import com.surge.backend.dto.PostRankDto;
 import com.surge.backend.dto.PostNewDto;
+import com.surge.backend.dto.PostUploadFinalizeDto;
+import com.surge.backend.dto.PostUploadRequestDto;
+import com.surge.backend.dto.PostUploadUrlDto;
 import com.surge.backend.entity.*;
+import com.surge.backend.security.BoundedPasswordEncoder;
+import com.surge.backend.security.CachingUserDetailsManager;
+import com.surge.backend.security.CurrentMember;
+import com.surge.backend.security.PasswordHashingBusyException;
 import com.surge.backend.service.*;
+import com.surge.backend.util.CommentCursor;
+import com.surge.backend.util.FeedCursor;
 import com.surge.backend.util.TimeFormatter;
+import com.surge.backend.util.TokenUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
-
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.UserDetailsManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -45,15 +100,45 @@ class BackendApplicationTests {
 	@Mock
 	private CommentDao commentDao;
 
+	@Mock
+	private MemberDao memberDao;
+
 	@Mock
 	private MemberService memberService;
 
 	@Mock
-	private S3Service s3Service;
+	private BlobStorage blobStorage;
 
 	@Mock
 	private TimeFormatter timeFormatter;
 
+	@Mock
+	private FeedRankIndex feedRankIndex;
+
+	@Mock
+	private LikeCounterService likeCounterService;
+
+	@Mock
+	private PostMembershipIndex membershipIndex;
+
+	@Spy
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	@Mock
+	private ImageUploadWorker imageUploadWorker;
+
+	@Mock
+	private ObjectDeletionOutbox objectDeletionOutbox;
+
+	@Mock
+	private ContentObjectService contentObjectService;
+
+	@Mock
+	private PendingUploadDao pendingUploadDao;
+
+	@Mock
+	private PlatformTransactionManager transactionManager;
+
 	@Mock
 	private SecurityContext securityContext;
 
@@ -63,7 +148,11 @@ class BackendApplicationTests {
 	@InjectMocks
 	private PostService postService;
 
+	@TempDir
+	private Path tempDir;
+
 	private UserDetails userDetails;
+	private CurrentMember currentMember;
 	private Member testUser;
 	private Post testPost;
 
@@ -92,14 +181,37 @@ class BackendApplicationTests {
 		when(securityContext.getAuthentication()).thenReturn(authentication);
 		SecurityContextHolder.setContext(securityContext);
 
+		// The request's member identity, services only ever get a reference to the Member row
+		currentMember = new CurrentMember("testUser");
+		when(memberDao.getReferenceById("testUser")).thenReturn(testUser);
+
 		// Base mock that's used by all tests
 		when(memberService.getUser("testUser")).thenReturn(testUser);
+		when(likeCounterService.currentCount(anyLong(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));   // Nothing pending by default
+		when(membershipIndex.forUser("testUser")).thenReturn(new PostMembershipIndex.Membership(List.of(), List.of()));
+	}
+
+	private static final String CONTENT_KEY = "content/3f/3f2a_9c1e04b7";
+
+	private ContentObject content(boolean stored, boolean variantsReady) {
+		ContentObject content = new ContentObject("3f2a", CONTENT_KEY, null);
+		content.setStored(stored);
+		content.setVariantsReady(variantsReady);
+		return content;
 	}
 
 	@Test
 	void testAddPost() {
 		// Arrange
-		when(postDao.save(any(Post.class))).thenReturn(testPost);
+		when(postDao.save(any(Post.class))).thenAnswer(invocation -> {
+			Post saved = invocation.getArgument(0);
+			saved.setId(1L);
+			return saved;
+		});
+		ImageUploadWorker.StagedUpload upload = new ImageUploadWorker.StagedUpload(CONTENT_KEY,
+				Path.of("staged"), "image/jpeg");
+		when(imageUploadWorker.stage(any())).thenReturn(upload);
+		when(contentObjectService.acquire(CONTENT_KEY)).thenReturn(content(false, false));
 
 		PostNewDto dto = new PostNewDto();
 		dto.setCaption("Test Post");
@@ -111,17 +223,198 @@ class BackendApplicationTests {
 		));
 
 		// Act
-		Post result = postService.addPost(dto);
+		Post result = postService.addPost(currentMember, dto);
 
 		// Assert
 		assertNotNull(result);
-		assertEquals("Test Caption", result.getCaption());
-		assertEquals("test-file-url", result.getFile());
+		assertEquals("Test Post", result.getCaption());
+		assertEquals(CONTENT_KEY, result.getFile());
 		assertEquals("testUser", result.getUser().getUserId());
+		assertEquals(PostStatus.PENDING, result.getStatus());
 
-		verify(memberService).getUser("testUser");
-		verify(s3Service).uploadFile(any(), eq(S3Service.ImageType.PROFILE_POSTS), eq("testUser"));
+		verify(memberService, never()).getUser(any());   // No member load for the logged in user
 		verify(postDao).save(any(Post.class));
+		verifyNoInteractions(blobStorage);   // The upload only happens on the worker, after the commit
+
+		// The worker reports the finished upload, only then does the post become visible
+		Runnable onUploaded = captureOnUploaded(upload);
+		when(postDao.markReady(1L)).thenReturn(1);
+		onUploaded.run();
+		verify(contentObjectService).markStored(CONTENT_KEY);
+		verify(feedRankIndex).add(eq(1L), eq(0), any());
+	}
+
+	@Test
+	void testAddPost_DeletedWhileUploading() {
+		// Arrange
+		when(postDao.save(any(Post.class))).thenAnswer(invocation -> {
+			Post saved = invocation.getArgument(0);
+			saved.setId(1L);
+			return saved;
+		});
+		ImageUploadWorker.StagedUpload upload = new ImageUploadWorker.StagedUpload(CONTENT_KEY,
+				Path.of("staged"), "image/jpeg");
+		when(imageUploadWorker.stage(any())).thenReturn(upload);
+		when(contentObjectService.acquire(CONTENT_KEY)).thenReturn(content(false, false));
+		PostNewDto dto = new PostNewDto();
+		dto.setCaption("Test Post");
+		postService.addPost(currentMember, dto);
+
+		// Act
+		when(postDao.markReady(1L)).thenReturn(0);
+		captureOnUploaded(upload).run();
+
+		// Assert
+		verify(feedRankIndex, never()).add(anyLong(), anyInt(), any());   // The delete already released the content
+		verify(blobStorage, never()).deleteFileIfExists(any());
+	}
+
+	@Test
+	void testAddPost_ContentAlreadyStored() {
+		// Arrange
+		when(postDao.save(any(Post.class))).thenAnswer(invocation -> {
+			Post saved = invocation.getArgument(0);
+			saved.setId(1L);
+			return saved;
+		});
+		ImageUploadWorker.StagedUpload upload = new ImageUploadWorker.StagedUpload(CONTENT_KEY,
+				Path.of("staged"), "image/jpeg");
+		when(imageUploadWorker.stage(any())).thenReturn(upload);
+		when(contentObjectService.acquire(CONTENT_KEY)).thenReturn(content(true, true));
+		PostNewDto dto = new PostNewDto();
+		dto.setCaption("Test Post");
+
+		// Act
+		Post result = postService.addPost(currentMember, dto);
+
+		// Assert
+		assertEquals(PostStatus.READY, result.getStatus());   // Shares the stored object, nothing to upload
+		assertTrue(result.isVariantsReady());
+		verify(imageUploadWorker).discard(upload);
+		verify(imageUploadWorker, never()).submit(any(), any(), any(), any());
+		verify(imageUploadWorker, never()).submitVariants(any(), any());
+		verify(feedRankIndex).add(eq(1L), eq(0), any());
+	}
+
+	private Runnable captureOnUploaded(ImageUploadWorker.StagedUpload upload) {
+		ArgumentCaptor<Runnable> onUploaded = ArgumentCaptor.forClass(Runnable.class);
+		verify(imageUploadWorker).submit(eq(upload), onUploaded.capture(), any(), any());
+		return onUploaded.getValue();
+	}
+
+	private PendingUpload pendingUpload(Member owner) {
+		PendingUpload pending = new PendingUpload("u1", owner, CONTENT_KEY);
+		when(pendingUploadDao.findById("u1")).thenReturn(Optional.of(pending));
+		when(pendingUploadDao.findByIdForUpdate("u1")).thenReturn(Optional.of(pending));
+		return pending;
+	}
+
+	@Test
+	void testRequestUpload() {
+		// Arrange
+		String sha256 = "3f2a".repeat(16);
+		when(contentObjectService.register(sha256, "image/jpeg")).thenReturn(CONTENT_KEY);
+		when(contentObjectService.find(CONTENT_KEY)).thenReturn(content(false, false));
+		when(blobStorage.presignUpload(CONTENT_KEY, "image/jpeg", 1024, sha256))
+				.thenReturn(new BlobStorage.PresignedUpload("https://bucket/put", Instant.now()));
+
+		// Act
+		PostUploadUrlDto result = postService.requestUpload(currentMember, new PostUploadRequestDto("cat.jpg", "image/jpeg", 1024L, sha256));
+
+		// Assert
+		ArgumentCaptor<PendingUpload> saved = ArgumentCaptor.forClass(PendingUpload.class);
+		verify(pendingUploadDao).save(saved.capture());
+		assertEquals(result.uploadId(), saved.getValue().getId());
+		assertEquals(testUser, saved.getValue().getUser());   // Only the requesting member may finalize it
+		assertEquals(CONTENT_KEY, saved.getValue().getObjectKey());
+		assertEquals("https://bucket/put", result.uploadUrl());
+	}
+
+	@Test
+	void testFinalizeUpload() {
+		// Arrange
+		PendingUpload pending = pendingUpload(testUser);
+		when(contentObjectService.find(CONTENT_KEY)).thenReturn(content(false, false));
+		when(contentObjectService.acquire(CONTENT_KEY)).thenReturn(content(true, false));
+		when(blobStorage.headFile(CONTENT_KEY)).thenReturn(new BlobStorage.StoredObject("image/jpeg", "\"e\"", 1024));
+		when(postDao.save(any(Post.class))).thenAnswer(invocation -> {
+			Post saved = invocation.getArgument(0);
+			saved.setId(7L);
+			return saved;
+		});
+
+		// Act
+		Post result = postService.finalizeUpload(currentMember, new PostUploadFinalizeDto("u1", " Cat "));
+
+		// Assert
+		assertEquals(PostStatus.READY, result.getStatus());   // Already in the bucket, nothing left to wait for
+		assertEquals("Cat", result.getCaption());
+		assertEquals(7L, pending.getPostId());
+		verify(contentObjectService).markStored(CONTENT_KEY);
+		verify(feedRankIndex).add(eq(7L), eq(0), any());
+		verify(imageUploadWorker).submitVariants(eq(CONTENT_KEY), any());
+	}
+
+	@Test
+	void testFinalizeUpload_RetryReturnsTheSamePost() {
+		// Arrange
+		pendingUpload(testUser).setPostId(7L);
+		Post existing = new Post();
+		existing.setId(7L);
+		when(postDao.findById(7L)).thenReturn(Optional.of(existing));
+
+		// Act
+		Post result = postService.finalizeUpload(currentMember, new PostUploadFinalizeDto("u1", "Cat"));
+
+		// Assert
+		assertSame(existing, result);
+		verify(postDao, never()).save(any());
+		verify(contentObjectService, never()).acquire(any());
+		verify(feedRankIndex, never()).add(anyLong(), anyInt(), any());
+	}
+
+	@Test
+	void testFinalizeUpload_ConcurrentRetryCreatesOnePost() {
+		// Arrange - another finalize of the upload committed between the check and the row lock
+		PendingUpload pending = new PendingUpload("u1", testUser, CONTENT_KEY);
+		PendingUpload finalized = new PendingUpload("u1", testUser, CONTENT_KEY);
+		finalized.setPostId(7L);
+		when(pendingUploadDao.findById("u1")).thenReturn(Optional.of(pending), Optional.of(finalized));
+		when(pendingUploadDao.findByIdForUpdate("u1")).thenReturn(Optional.of(finalized));
+		when(contentObjectService.find(CONTENT_KEY)).thenReturn(content(true, true));
+		Post existing = new Post();
+		existing.setId(7L);
+		when(postDao.findById(7L)).thenReturn(Optional.of(existing));
+
+		// Act
+		Post result = postService.finalizeUpload(currentMember, new PostUploadFinalizeDto("u1", "Cat"));
+
+		// Assert
+		assertSame(existing, result);
+		verify(postDao, never()).save(any());
+		verify(feedRankIndex, never()).add(anyLong(), anyInt(), any());
+	}
+
+	@Test
+	void testFinalizeUpload_RejectsForeignOrInvalidObjects() {
+		// Arrange
+		Member otherUser = new Member();
+		otherUser.setUserId("otherUser");
+		PendingUpload foreign = new PendingUpload("u2", otherUser, CONTENT_KEY);
+		when(pendingUploadDao.findById("u2")).thenReturn(Optional.of(foreign));
+		pendingUpload(testUser);
+		when(contentObjectService.find(CONTENT_KEY)).thenReturn(content(false, false));
+		when(blobStorage.headFile(CONTENT_KEY)).thenReturn(new BlobStorage.StoredObject("image/jpeg", "\"e\"", 50_000_000));
+
+		// Act & Assert
+		assertThrows(IllegalArgumentException.class, () -> postService.finalizeUpload(currentMember,
+				new PostUploadFinalizeDto("unknown", "c")));
+		assertThrows(IllegalArgumentException.class, () -> postService.finalizeUpload(currentMember,
+				new PostUploadFinalizeDto("u2", "c")));   // Requested by another member
+		assertThrows(IllegalArgumentException.class, () -> postService.finalizeUpload(currentMember,
+				new PostUploadFinalizeDto("u1", "c")));   // Over the size limit
+		verify(contentObjectService, never()).markStored(any());   // Swept with its content row
+		verify(postDao, never()).save(any());
 	}
 
 	@Test
@@ -136,7 +429,7 @@ class BackendApplicationTests {
 		when(postDao.save(any(Post.class))).thenReturn(updatedPost);
 
 		// Act
-		Post result = postService.updateCaption(1L, "Updated Caption");
+		Post result = postService.updateCaption(currentMember, 1L, "Updated Caption");
 
 		// Assert
 		assertNotNull(result);
@@ -158,22 +451,38 @@ class BackendApplicationTests {
 
 		// Act & Assert
 		assertThrows(IllegalArgumentException.class,
-				() -> postService.updateCaption(1L, "Updated Caption")
+				() -> postService.updateCaption(currentMember, 1L, "Updated Caption")
 		);
 	}
 
 	@Test
 	void testDeletePost() {
 		// Arrange
-		doNothing().when(s3Service).deleteFile(any());
 		when(postDao.findById(1L)).thenReturn(Optional.of(testPost));
 
 		// Act
-		assertDoesNotThrow(() -> postService.deletePost(1L));
+		assertDoesNotThrow(() -> postService.deletePost(currentMember, 1L));
+
+		// Assert
+		verify(postDao).delete(testPost);
+		verify(objectDeletionOutbox).enqueue(List.of("test-file-url",
+				"variants/card/test-file-url", "variants/thumb/test-file-url"));   // Stored before deduplication, not shared
+		verifyNoInteractions(blobStorage);   // Deleted from the bucket by the outbox drainer after the commit
+	}
+
+	@Test
+	void testDeletePost_ReleasesSharedContent() {
+		// Arrange
+		testPost.setFile(CONTENT_KEY);
+		when(postDao.findById(1L)).thenReturn(Optional.of(testPost));
+		when(contentObjectService.release(CONTENT_KEY)).thenReturn(true);
+
+		// Act
+		postService.deletePost(currentMember, 1L);
 
 		// Assert
 		verify(postDao).delete(testPost);
-		verify(s3Service).deleteFile(testPost.getFile());
+		verify(objectDeletionOutbox, never()).enqueue(any());   // Other posts may still show it, the sweep deletes it once released
 	}
 
 	@Test
@@ -183,10 +492,10 @@ class BackendApplicationTests {
 
 		// Act & Assert
 		assertThrows(NoSuchElementException.class,
-				() -> postService.deletePost(1L)
+				() -> postService.deletePost(currentMember, 1L)
 		);
 		verify(postDao, never()).delete(any());
-		verify(s3Service, never()).deleteFile(any());
+		verify(objectDeletionOutbox, never()).enqueue(any());
 	}
 
 	@Test
@@ -194,15 +503,30 @@ class BackendApplicationTests {
 		// Arrange
 		when(postDao.findById(1L)).thenReturn(Optional.of(testPost));
 		when(likeDao.existsByPost_IdAndUser_UserId(1L, "testUser")).thenReturn(false);
-		when(likeDao.getTotalLikesForPost(1L)).thenReturn(1);
+		when(likeCounterService.currentCount(1L, 0)).thenReturn(0);
 
 		// Act
-		Map<String, Object> result = postService.toggleLike(1L);
+		Map<String, Object> result = postService.toggleLike(currentMember, 1L);
 
 		// Assert
 		assertTrue((Boolean) result.get("isNowLiked"));
 		assertEquals(1, result.get("likeCount"));
 		verify(likeDao).save(any(Like.class));
+		verify(feedRankIndex).adjustLikeCount(1L, 1);
+	}
+
+	@Test
+	void testToggleLike_ReturnsTheIndexCount() {
+		// Arrange - another instance's likes reached the index since this post row was read
+		when(postDao.findById(1L)).thenReturn(Optional.of(testPost));
+		when(likeDao.existsByPost_IdAndUser_UserId(1L, "testUser")).thenReturn(false);
+		when(feedRankIndex.adjustLikeCount(1L, 1)).thenReturn(OptionalInt.of(5));
+
+		// Act
+		Map<String, Object> result = postService.toggleLike(currentMember, 1L);
+
+		// Assert
+		assertEquals(5, result.get("likeCount"));
 	}
 
 	@Test
@@ -210,15 +534,18 @@ class BackendApplicationTests {
 		// Arrange
 		when(postDao.findById(1L)).thenReturn(Optional.of(testPost));
 		when(likeDao.existsByPost_IdAndUser_UserId(1L, "testUser")).thenReturn(true);
-		when(likeDao.getTotalLikesForPost(1L)).thenReturn(0);
+		when(likeDao.deleteByPost_IdAndUser_UserId(1L, "testUser")).thenReturn(1L);
+		when(likeCounterService.currentCount(1L, 0)).thenReturn(1);
 
 		// Act
-		Map<String, Object> result = postService.toggleLike(1L);
+		Map<String, Object> result = postService.toggleLike(currentMember, 1L);
 
 		// Assert
 		assertFalse((Boolean) result.get("isNowLiked"));
 		assertEquals(0, result.get("likeCount"));
 		verify(likeDao).deleteByPost_IdAndUser_UserId(1L, "testUser");
+		verify(feedRankIndex).adjustLikeCount(1L, -1);
+		verify(membershipIndex).setLiked("testUser", 1L, false);
 	}
 
 	@Test
@@ -228,11 +555,12 @@ class BackendApplicationTests {
 		when(saveDao.existsByPost_IdAndUser_UserId(1L, "testUser")).thenReturn(false);
 
 		// Act
-		boolean result = postService.toggleSave(1L);
+		boolean result = postService.toggleSave(currentMember, 1L);
 
 		// Assert
 		assertTrue(result);
 		verify(saveDao).save(any(Save.class));
+		verify(membershipIndex).setSaved("testUser", 1L, true);
 	}
 
 	@Test
@@ -242,7 +570,7 @@ class BackendApplicationTests {
 		when(saveDao.existsByPost_IdAndUser_UserId(1L, "testUser")).thenReturn(true);
 
 		// Act
-		boolean result = postService.toggleSave(1L);
+		boolean result = postService.toggleSave(currentMember, 1L);
 
 		// Assert
 		assertFalse(result);
@@ -264,7 +592,7 @@ class BackendApplicationTests {
 		dto.setComment("Test Comment");
 
 		// Act
-		Comment result = postService.addComment(dto, 1L);
+		Comment result = postService.addComment(currentMember, dto, 1L);
 
 		// Assert
 		assertNotNull(result);
@@ -272,6 +600,7 @@ class BackendApplicationTests {
 		assertEquals(testUser, result.getUser());
 		assertEquals(testPost, result.getPost());
 		verify(commentDao).save(any(Comment.class));
+		verify(postDao).adjustCommentCount(1L, 1);
 	}
 
 	@Test
@@ -298,56 +627,957 @@ class BackendApplicationTests {
 		dto.setReplyTo(1L);
 
 		// Act
-		Comment result = postService.addComment(dto, 1L);
+		Comment result = postService.addComment(currentMember, dto, 1L);
 
 		// Assert
 		assertNotNull(result);
 		assertEquals("Reply Comment", result.getContent());
 		assertEquals(parentComment, result.getParent());
 		verify(commentDao).save(any(Comment.class));
+		verify(commentDao).adjustReplyCount(1L, 1);
 	}
 
 	@Test
-	void testGetAllCommentsForPost() {
+	void testGetCommentsPage_ReturnsCursorWhenMoreCommentsExist() {
 		// Arrange
-		List<Comment> comments = new ArrayList<>();
-		Comment comment1 = new Comment();
-		comment1.setId(1L);
-		comment1.setContent("Comment 1");
-		comments.add(comment1);
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		when(postDao.existsById(1L)).thenReturn(true);
+		when(commentDao.findTopLevelFirstPage(1L, Limit.of(3))).thenReturn(List.of(
+				new CommentItemDto(3L, "testUser", "c3", 0, createdAt.plusMinutes(2)),
+				new CommentItemDto(2L, "testUser", "c2", 4, createdAt.plusMinutes(1)),
+				new CommentItemDto(1L, "testUser", "c1", 0, createdAt)));
+
+		// Act
+		CommentPageDto page = postService.getCommentsPage(1L, null, 2);
+
+		// Assert
+		assertEquals(2, page.comments().size());
+		assertEquals(4, page.comments().get(1).replyCount());
+		assertEquals(new CommentCursor(createdAt.plusMinutes(1), 2L), CommentCursor.decode(page.nextCursor()));
+	}
+
+	@Test
+	void testGetRepliesPage_ContinuesAfterCursor() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		String cursor = new CommentCursor(createdAt, 5L).encode();
+		when(commentDao.existsById(2L)).thenReturn(true);
+		when(commentDao.findRepliesAfter(2L, createdAt, 5L, Limit.of(3)))
+				.thenReturn(List.of(new CommentItemDto(6L, "testUser", "r2", 0, createdAt.plusMinutes(1))));
+
+		// Act
+		CommentPageDto page = postService.getRepliesPage(2L, cursor, 2);
+
+		// Assert
+		assertEquals(1, page.comments().size());
+		assertNull(page.nextCursor());
+	}
+
+	@Test
+	void testGetRepliesPage_CommentNotFound() {
+		when(commentDao.existsById(99L)).thenReturn(false);
 
+		assertThrows(NoSuchElementException.class,
+				() -> postService.getRepliesPage(99L, null, null)
+		);
+	}
+
+	@Test
+	void testGetAllCommentsForPost() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
 		when(postDao.findById(1L)).thenReturn(Optional.of(testPost));
-		when(commentDao.findAllByPost_IdAndParentIsNullOrderByCreatedAtDesc(1L)).thenReturn(comments);
-		when(commentDao.getTotalCommentsForPost(1L)).thenReturn(1);
+		when(commentDao.findRowsByPostId(1L)).thenReturn(List.of(
+				new CommentRowDto(1L, null, "Comment 1", createdAt),
+				new CommentRowDto(2L, 1L, "Reply 1", createdAt.plusMinutes(1)),
+				new CommentRowDto(3L, null, "Comment 2", createdAt.plusMinutes(2)),
+				new CommentRowDto(4L, 2L, "Reply to reply", createdAt.plusMinutes(3)),
+				new CommentRowDto(5L, 1L, "Reply 2", createdAt.plusMinutes(4))));
+		testPost.setCommentCount(5);
 
 		// Act
-		Map<String, Object> result = postService.getAllCommentsForPost(1L);
+		Map<String, Object> result = postService.getAllCommentsForPost(1L, null);
 
 		// Assert
 		assertNotNull(result);
-		assertEquals(1, result.get("commentCount"));
-		List<?> resultComments = (List<?>) result.get("comments");
-		assertFalse(resultComments.isEmpty());
+		assertEquals(5, result.get("commentCount"));
+		List<Map<String, Object>> resultComments = (List<Map<String, Object>>) result.get("comments");
+		assertEquals(List.of(3L, 1L), resultComments.stream().map(c -> c.get("id")).toList());   // Newest top level first
+
+		List<Map<String, Object>> replies = (List<Map<String, Object>>) resultComments.get(1).get("replies");
+		assertEquals(List.of(2L, 5L), replies.stream().map(c -> c.get("id")).toList());   // Replies oldest first
+		assertEquals("Reply to reply", ((List<Map<String, Object>>) replies.getFirst().get("replies")).getFirst().get("text"));
+		assertFalse(resultComments.get(1).containsKey("replyCount"));
+
+		// One query for the whole thread, no lazy loading of replies
+		verify(commentDao).findRowsByPostId(1L);
+		verify(commentDao, never()).findById(anyLong());
+	}
+
+	@Test
+	void testGetAllCommentsForPost_CollapsesBelowMaxDepth() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		when(postDao.findById(1L)).thenReturn(Optional.of(testPost));
+		when(commentDao.findRowsByPostId(1L)).thenReturn(List.of(
+				new CommentRowDto(1L, null, "Comment 1", createdAt),
+				new CommentRowDto(2L, 1L, "Reply 1", createdAt.plusMinutes(1)),
+				new CommentRowDto(3L, 2L, "Reply to reply", createdAt.plusMinutes(2))));
+
+		// Act
+		Map<String, Object> result = postService.getAllCommentsForPost(1L, 0);
+
+		// Assert
+		Map<String, Object> comment = ((List<Map<String, Object>>) result.get("comments")).getFirst();
+		assertEquals(List.of(), comment.get("replies"));
+		assertEquals(2, comment.get("replyCount"));
+		assertThrows(IllegalArgumentException.class, () -> postService.getAllCommentsForPost(1L, -1));
 	}
 
 	@Test
-	void testGetAllPosts() {
+	void testWriteAllPosts() throws Exception {
 		// Arrange
-		List<Post> posts = Collections.singletonList(testPost);
-		when(postDao.findAllOrderByLikesAndCreatedAt()).thenReturn(posts);
-		when(likeDao.getTotalLikesForPost(anyLong())).thenReturn(5);
-		when(commentDao.getTotalCommentsForPost(anyLong())).thenReturn(3);
+		PostFeedRowDto row = new PostFeedRowDto(
+				testPost.getId(), "testUser", testPost.getFile(), testPost.getCaption(), testPost.getCreatedAt(), 5, 3, false);
+		when(postDao.streamFeedRowsOrderByLikesAndCreatedAt()).thenReturn(Stream.of(row));
+		when(membershipIndex.forUser("testUser")).thenReturn(new PostMembershipIndex.Membership(List.of(1L), List.of()));
 		when(timeFormatter.toRelativeTime(any())).thenReturn("1 hour ago");
+		when(blobStorage.getImageUrls(List.of("test-file-url"))).thenReturn(Map.of("test-file-url", "https://signed/test-file-url"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		// Act
+		postService.writeAllPosts(currentMember, out);
+
+		// Assert
+		JsonNode result = objectMapper.readTree(out.toByteArray());
+		assertEquals(1, result.size());
+		JsonNode firstPost = result.get(0);
+		assertEquals(testPost.getId(), firstPost.get("id").asLong());
+		assertEquals(testPost.getCaption(), firstPost.get("caption").asText());
+		assertEquals(5, firstPost.get("likeCount").asInt());
+		assertEquals(3, firstPost.get("commentCount").asInt());
+		assertTrue(firstPost.get("isLiked").asBoolean());
+		assertFalse(firstPost.get("isSaved").asBoolean());
+		assertEquals("https://signed/test-file-url", firstPost.get("img").asText());
+		verify(blobStorage, never()).getImageUrl(any());   // One bulk presign per batch, not one call per post
+
+		// Like/save state comes from the membership index, never from per-post queries
+		verify(likeDao, never()).existsByPost_IdAndUser_UserId(anyLong(), any());
+		verify(saveDao, never()).existsByPost_IdAndUser_UserId(anyLong(), any());
+	}
+
+	@Test
+	void testWriteAllPosts_StreamsFromFeedIndex() throws Exception {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		when(feedRankIndex.isReady()).thenReturn(true);
+		when(feedRankIndex.ids()).thenReturn(List.of(2L, 1L).iterator());
+		when(postDao.findFeedRowsByIds(List.of(2L, 1L))).thenReturn(List.of(
+				new PostFeedRowDto(1L, "testUser", "f1", "c1", createdAt, 1, 0, false),
+				new PostFeedRowDto(2L, "testUser", "f2", "c2", createdAt, 4, 0, false)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		// Act
+		postService.writeAllPosts(currentMember, out);
+
+		// Assert
+		JsonNode result = objectMapper.readTree(out.toByteArray());
+		assertEquals(2, result.size());
+		assertEquals(2L, result.get(0).get("id").asLong());
+		assertEquals(1L, result.get(1).get("id").asLong());
+		verify(postDao, never()).streamFeedRowsOrderByLikesAndCreatedAt();
+	}
+
+	@Test
+	void testWriteAllPostsOfUser_ServesGridThumbnails() throws Exception {
+		// Arrange
+		PostFeedRowDto row = new PostFeedRowDto(1L, "testUser", "content/3f/3f2a_9c1e04b7", "c1", LocalDateTime.now(), 0, 0, true);
+		when(postDao.streamFeedRowsByUser("testUser")).thenReturn(Stream.of(row));
+		when(blobStorage.getImageUrls(List.of("content/3f/variants/card/3f2a_9c1e04b7", "content/3f/variants/thumb/3f2a_9c1e04b7")))
+				.thenReturn(Map.of("content/3f/variants/card/3f2a_9c1e04b7", "https://signed/card",
+						"content/3f/variants/thumb/3f2a_9c1e04b7", "https://signed/thumb"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		// Act
+		postService.writeAllPostsOfUser(currentMember, "testUser", out);
+
+		// Assert
+		JsonNode post = objectMapper.readTree(out.toByteArray()).get(0);
+		assertEquals("https://signed/card", post.get("img").asText());   // Opened post
+		assertEquals("https://signed/thumb", post.get("thumbImg").asText());   // Grid cell
+	}
+
+	@Test
+	void testWriteAllSavedPostsOfUser_EmptyArray() throws Exception {
+		// Arrange
+		when(postDao.streamFeedRowsSavedByUser("testUser")).thenReturn(Stream.empty());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		// Act
+		postService.writeAllSavedPostsOfUser(currentMember, out);
+
+		// Assert
+		assertEquals("[]", out.toString());
+	}
+
+	@Test
+	void testGetFeedPage_ReturnsCursorWhenMorePostsExist() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		List<PostFeedRowDto> rows = List.of(
+				new PostFeedRowDto(3L, "testUser", "f3", "c3", createdAt, 9, 0, false),
+				new PostFeedRowDto(2L, "testUser", "f2", "c2", createdAt, 4, 0, false),
+				new PostFeedRowDto(1L, "testUser", "f1", "c1", createdAt, 1, 0, false));
+		when(postDao.findFeedRowsFirstPage(Limit.of(3))).thenReturn(rows);
+
+		// Act
+		PostFeedPageDto page = postService.getFeedPage(currentMember, null, 2);
+
+		// Assert
+		assertEquals(2, page.posts().size());
+		FeedCursor next = FeedCursor.decode(page.nextCursor());
+		assertEquals(new FeedCursor(4, createdAt, 2L), next);
+	}
+
+	@Test
+	void testGetFeedPage_ContinuesAfterCursor() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		String cursor = new FeedCursor(4, createdAt, 2L).encode();
+		when(postDao.findFeedRowsAfter(4, createdAt, 2L, Limit.of(3)))
+				.thenReturn(List.of(new PostFeedRowDto(1L, "testUser", "f1", "c1", createdAt, 1, 0, false)));
+
+		// Act
+		PostFeedPageDto page = postService.getFeedPage(currentMember, cursor, 2);
+
+		// Assert
+		assertEquals(1, page.posts().size());
+		assertNull(page.nextCursor());
+	}
+
+	@Test
+	void testGetFeedPage_InvalidCursor() {
+		assertThrows(IllegalArgumentException.class,
+				() -> postService.getFeedPage(currentMember, "not-a-cursor", 2)
+		);
+	}
+
+	private static List<FeedRankIndex.RankKey> rankKeys(LocalDateTime createdAt, Long... postIds) {
+		return Arrays.stream(postIds).map(id -> FeedRankIndex.RankKey.of(0, createdAt, id)).toList();
+	}
+
+	private static List<Long> postIds(List<FeedRankIndex.RankKey> keys) {
+		return keys.stream().map(FeedRankIndex.RankKey::postId).toList();
+	}
+
+	@Test
+	void testGetFeedPage_CursorContinuesFromTheIndexKey() {
+		// Arrange - the index ranked post 2 by 3 likes, the live count has moved on to 5 since
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		when(feedRankIndex.isReady()).thenReturn(true);
+		when(feedRankIndex.page(null, 2)).thenReturn(List.of(
+				FeedRankIndex.RankKey.of(3, createdAt, 2L), FeedRankIndex.RankKey.of(1, createdAt, 1L)));
+		when(postDao.findFeedRowsByIds(List.of(2L, 1L))).thenReturn(List.of(
+				new PostFeedRowDto(2L, "testUser", "f2", "c2", createdAt, 3, 0, false),
+				new PostFeedRowDto(1L, "testUser", "f1", "c1", createdAt, 1, 0, false)));
+		when(likeCounterService.currentCount(2L, 3)).thenReturn(5);
+
+		// Act
+		PostFeedPageDto page = postService.getFeedPage(currentMember, null, 1);
+
+		// Assert
+		assertEquals(5, page.posts().getFirst().likeCount());   // Shown live
+		assertEquals(new FeedCursor(3, createdAt, 2L), FeedCursor.decode(page.nextCursor()));   // Seeks from the key on the page
+	}
+
+	@Test
+	void testGetFeedPage_ServedFromFeedIndex() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		when(feedRankIndex.isReady()).thenReturn(true);
+		when(feedRankIndex.page(null, 3)).thenReturn(rankKeys(createdAt, 2L, 1L));
+		when(postDao.findFeedRowsByIds(List.of(2L, 1L))).thenReturn(List.of(   // Database order differs from the index order
+				new PostFeedRowDto(1L, "testUser", "f1", "c1", createdAt, 1, 0, false),
+				new PostFeedRowDto(2L, "testUser", "f2", "c2", createdAt, 4, 0, false)));
+
+		// Act
+		PostFeedPageDto page = postService.getFeedPage(currentMember, null, 2);
+
+		// Assert
+		assertEquals(2L, page.posts().get(0).id());
+		assertEquals(1L, page.posts().get(1).id());
+		assertNull(page.nextCursor());
+		verify(postDao, never()).findFeedRowsFirstPage(any());
+	}
+
+	@Test
+	void testGetFeedPage_TopsUpIdsWhosePostIsGone() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		when(feedRankIndex.isReady()).thenReturn(true);
+		when(feedRankIndex.page(null, 3)).thenReturn(rankKeys(createdAt, 3L, 2L, 1L));
+		when(feedRankIndex.page(null, 6)).thenReturn(rankKeys(createdAt, 3L, 2L, 1L, 4L));
+		when(postDao.findFeedRowsByIds(List.of(3L, 2L, 1L))).thenReturn(List.of(   // 3 was deleted on another instance
+				new PostFeedRowDto(2L, "testUser", "f2", "c2", createdAt, 4, 0, false),
+				new PostFeedRowDto(1L, "testUser", "f1", "c1", createdAt, 1, 0, false)));
+		when(postDao.findFeedRowsByIds(List.of(4L))).thenReturn(List.of(
+				new PostFeedRowDto(4L, "testUser", "f4", "c4", createdAt, 0, 0, false)));
+
+		// Act
+		PostFeedPageDto page = postService.getFeedPage(currentMember, null, 2);
+
+		// Assert
+		assertEquals(List.of(2L, 1L), page.posts().stream().map(PostFeedItemDto::id).toList());
+		assertNotNull(page.nextCursor());   // Post 4 is still to come
+	}
+
+	@Test
+	void testFeedRankIndex_KeepsWritesMadeDuringRebuild() {
+		// Arrange
+		LocalDateTime createdAt = LocalDateTime.of(2025, 1, 1, 12, 0);
+		LikeCounterService counter = new LikeCounterService(mock(JdbcTemplate.class), mock(PlatformTransactionManager.class));
+		FeedRankIndex index = new FeedRankIndex(postDao, counter, true);
+		when(postDao.findAllRanks()).thenReturn(List.of(new PostRankDto(1L, 0, createdAt), new PostRankDto(2L, 0, createdAt)));
+		index.rebuild();
+		index.adjustLikeCount(2L, 1);   // Not flushed yet, the next scan still reads 0
+		when(postDao.findAllRanks()).thenAnswer(invocation -> {
+			// Committed after the scan's snapshot was taken
+			index.add(3L, 0, createdAt.plusHours(1));
+			index.remove(1L);
+			index.adjustLikeCount(2L, 6);
+			return List.of(new PostRankDto(1L, 0, createdAt), new PostRankDto(2L, 0, createdAt));
+		});
+
+		// Act
+		index.rebuild();
+		index.remove(3L);
+		index.adjustLikeCount(3L, 9);   // Must not bring the removed post back
+
+		// Assert
+		assertEquals(List.of(2L), postIds(index.page(null, 10)));
+		assertEquals(OptionalInt.of(8), index.adjustLikeCount(2L, 1));   // Every delta counted exactly once
+	}
+
+	@Test
+	void testFeedRankIndex_OrdersByLikesThenCreatedAtThenId() {
+		// Arrange
+		LocalDateTime older = LocalDateTime.of(2025, 1, 1, 12, 0);
+		LocalDateTime newer = older.plusHours(1);
+		FeedRankIndex index = new FeedRankIndex(postDao, likeCounterService, true);
+		when(postDao.findAllRanks()).thenReturn(List.of(
+				new PostRankDto(1L, 5, older),
+				new PostRankDto(2L, 5, newer),
+				new PostRankDto(3L, 0, newer),
+				new PostRankDto(4L, 5, newer)));
+		index.rebuild();
+
+		// Act & Assert
+		assertTrue(index.isReady());
+		assertEquals(List.of(4L, 2L, 1L, 3L), postIds(index.page(null, 10)));
+		assertEquals(List.of(1L, 3L), postIds(index.page(new FeedCursor(5, newer, 2L), 10)));
+
+		index.adjustLikeCount(3L, 6);
+		index.remove(4L);
+		index.add(5L, 0, newer);
+		assertEquals(List.of(3L, 2L, 1L, 5L), postIds(index.page(null, 10)));
+	}
+
+	@Test
+	void testFeedRankIndex_OrdersWithinASecondLikeTheDatabase() {
+		// Arrange - same second, but post 1 was created after post 2 (ids are not strictly in creation order)
+		LocalDateTime second = LocalDateTime.of(2025, 1, 1, 12, 0);
+		FeedRankIndex index = new FeedRankIndex(postDao, likeCounterService, true);
+		when(postDao.findAllRanks()).thenReturn(List.of(
+				new PostRankDto(1L, 0, second.plusNanos(500_000_000)),
+				new PostRankDto(2L, 0, second.plusNanos(100_000_000))));
+		index.rebuild();
+
+		// Act & Assert - createdAt DESC, id DESC as in PostDao.findFeedRowsAfter
+		assertEquals(List.of(1L, 2L), postIds(index.page(null, 10)));
+		assertEquals(List.of(2L), postIds(index.page(new FeedCursor(0, second.plusNanos(500_000_000), 1L), 10)));
+		assertEquals(List.of(), postIds(index.page(new FeedCursor(0, second.plusNanos(100_000_000), 2L), 10)));
+	}
+
+	@Test
+	void testPostCounterReconciler_RecountsOnlyQuietLikeCounts() {
+		// Arrange - post 2 still has a delta waiting here, recounting it would count that like twice
+		CommentDao commentDao = mock(CommentDao.class);
+		LikeCounterService counter = mock(LikeCounterService.class);
+		when(postDao.findLikeCountDriftIds(any())).thenReturn(List.of(1L, 2L, 3L));
+		when(counter.unflushed()).thenReturn(Map.of(2L, 1L));
+		when(postDao.recountLikes(any(), any())).thenReturn(2);
+		PostCounterReconciler reconciler = new PostCounterReconciler(postDao, commentDao, counter, transactionManager);
+
+		// Act
+		LocalDateTime start = LocalDateTime.now();
+		reconciler.reconcile();
+
+		// Assert
+		ArgumentCaptor<LocalDateTime> quietSince = ArgumentCaptor.forClass(LocalDateTime.class);
+		InOrder inOrder = inOrder(counter, postDao);
+		inOrder.verify(counter).pauseFlushes();
+		inOrder.verify(postDao).recountLikes(eq(List.of(1L, 3L)), quietSince.capture());
+		inOrder.verify(counter).resumeFlushes();
+		assertFalse(quietSince.getValue().isBefore(start.minusMinutes(1)));   // Only likes older than the quiet period
+		assertTrue(quietSince.getValue().isBefore(start));
+		verify(postDao).reconcileCommentCounts();
+		verify(commentDao).reconcileReplyCounts();
+	}
+
+	@Test
+	void testLikeCounterService_AggregatesDeltasUntilFlush() {
+		// Arrange
+		LikeCounterService counter = new LikeCounterService(mock(JdbcTemplate.class),
+				mock(PlatformTransactionManager.class));
+
+		// Act
+		counter.add(1L, 1);
+		counter.add(1L, 1);
+		counter.add(1L, -1);
+		counter.add(2L, 1);
+
+		// Assert
+		assertEquals(11, counter.currentCount(1L, 10));
+		assertEquals(1, counter.currentCount(2L, 0));
+		assertEquals(7, counter.currentCount(3L, 7));
+	}
+
+	@Test
+	void testTokenUtil_VerifiesOnceAndCachesByDigest() {
+		// Arrange
+		TokenUtil tokenUtil = new TokenUtil();
+		ReflectionTestUtils.setField(tokenUtil, "secret", "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef");
+		tokenUtil.init();
+		String token = tokenUtil.generateToken(userDetails);
+
+		// Act
+		TokenUtil.VerifiedToken first = tokenUtil.verifyToken(token);
+		TokenUtil.VerifiedToken second = tokenUtil.verifyToken(token);
+
+		// Assert
+		assertEquals("testUser", first.username());
+		assertSame(first, second);   // Second lookup never reached the parser
+		assertTrue(tokenUtil.validateToken(first, userDetails));
+		assertThrows(io.jsonwebtoken.JwtException.class, () -> tokenUtil.verifyToken(token + "x"));
+	}
+
+	@Test
+	void testTokenUtil_RefreshesOnlyNearExpiry() {
+		// Arrange
+		TokenUtil tokenUtil = new TokenUtil();
+		ReflectionTestUtils.setField(tokenUtil, "refreshThreshold", Duration.ofHours(1));
+		long now = System.currentTimeMillis();
+
+		// Act & Assert
+		assertFalse(tokenUtil.shouldRefresh(new TokenUtil.VerifiedToken("testUser", new Date(now + 5 * 60 * 60 * 1000))));
+		assertTrue(tokenUtil.shouldRefresh(new TokenUtil.VerifiedToken("testUser", new Date(now + 10 * 60 * 1000))));
+		assertTrue(tokenUtil.shouldRefresh(null));
+	}
+
+	@Test
+	void testCachingUserDetailsManager_CachesUntilUserIsUpdated() {
+		// Arrange
+		UserDetailsManager jdbcManager = mock(UserDetailsManager.class);
+		when(jdbcManager.loadUserByUsername("testUser")).thenReturn(userDetails);
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CachingUserDetailsManager manager = new CachingUserDetailsManager(jdbcManager, Duration.ofMinutes(1), 100, registry);
+
+		// Act
+		UserDetails first = manager.loadUserByUsername("testUser");
+		UserDetails second = manager.loadUserByUsername("testUser");
+		manager.updateUser(userDetails);
+		manager.loadUserByUsername("testUser");
+
+		// Assert
+		assertNotSame(first, second);   // Copies, so erasing credentials on one cannot leak into the cache
+		assertEquals(userDetails.getPassword(), second.getPassword());
+		verify(jdbcManager, times(2)).loadUserByUsername("testUser");
+		assertEquals(1.0, registry.get("cache.gets").tag("cache", "userDetails").tag("result", "hit").functionCounter().count());
+	}
+
+	@Test
+	void testBoundedPasswordEncoder_RejectsWhenQueueIsFull() throws Exception {
+		// Arrange
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		PasswordEncoder slowEncoder = mock(PasswordEncoder.class);
+		when(slowEncoder.encode(any())).thenAnswer(invocation -> {
+			started.countDown();
+			release.await();
+			return "hash";
+		});
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(slowEncoder, 1, 1, 3, registry);
+
+		// Act - one hash running and one queued fill the pool
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		Future<String> running = callers.submit(() -> encoder.encode("a"));
+		started.await();
+		Future<String> queued = callers.submit(() -> encoder.encode("b"));
+		while (registry.get("auth.password.hashing.queue").gauge().value() < 1) {
+			Thread.onSpinWait();
+		}
+
+		// Assert
+		PasswordHashingBusyException busy = assertThrows(PasswordHashingBusyException.class, () -> encoder.encode("c"));
+		assertEquals(3, busy.getRetryAfterSeconds());
+
+		release.countDown();
+		assertEquals("hash", running.get());
+		assertEquals("hash", queued.get());
+		assertEquals(1.0, registry.get("auth.password.hashing.rejected").counter().count());
+		callers.shutdown();
+		encoder.shutdown();
+	}
+
+	@Test
+	void testPresignedUrlCache_SignsOncePerKeyAndOutlivesTheCache() throws Exception {
+		// Arrange
+		AtomicInteger signed = new AtomicInteger();
+		PresignedUrlCache cache = new PresignedUrlCache(key -> {
+			signed.incrementAndGet();
+			return "https://bucket/" + key + "?sig=" + signed.get();
+		}, Duration.ofMinutes(30), Duration.ofMinutes(15), Duration.ofMinutes(10), 100, new SimpleMeterRegistry());
+
+		// Act - concurrent misses on the same key
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		List<Future<String>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(callers.submit(() -> cache.get("user/profile-posts/a.jpg")));
+		}
+		for (Future<String> result : results) {
+			assertEquals("https://bucket/user/profile-posts/a.jpg?sig=1", result.get());
+		}
+		callers.shutdown();
+
+		// Assert
+		assertEquals(1, signed.get());
+		assertEquals(Duration.ofMinutes(15), cache.getMinimumRemainingValidity());
+		assertThrows(IllegalArgumentException.class, () -> new PresignedUrlCache(key -> key,
+				Duration.ofMinutes(10), Duration.ofMinutes(10), Duration.ofMinutes(5), 100, new SimpleMeterRegistry()));
+	}
+
+	@Test
+	void testPresignedUrlCache_BulkLookupSignsOnlyMisses() {
+		// Arrange
+		AtomicInteger signed = new AtomicInteger();
+		PresignedUrlCache cache = new PresignedUrlCache(key -> {
+			signed.incrementAndGet();
+			return "https://bucket/" + key;
+		}, Duration.ofMinutes(30), Duration.ofMinutes(15), Duration.ofMinutes(10), 100, new SimpleMeterRegistry());
+		cache.get("a");
+
+		// Act
+		Map<String, String> urls = cache.getAll(List.of("a", "b", "c", "b"));
+
+		// Assert
+		assertEquals(Map.of("a", "https://bucket/a", "b", "https://bucket/b", "c", "https://bucket/c"), urls);
+		assertEquals(3, signed.get());
+	}
+
+	@Test
+	void testImageDiskCache_EvictsLeastRecentlyUsed() throws Exception {
+		// Arrange
+		Path dir = tempDir.resolve("image-cache");
+		BlobStorage s3 = mock(BlobStorage.class);
+		when(s3.downloadFile(any(), any())).thenAnswer(invocation -> {
+			Files.write(invocation.getArgument(1), new byte[40]);
+			return new BlobStorage.StoredObject("image/png", "\"etag\"", 40);
+		});
+		ImageDiskCache cache = new ImageDiskCache(s3, dir.toString(), 100, Duration.ofSeconds(30), new SimpleMeterRegistry());
+		cache.init();
+
+		// Act
+		cache.open("content/aa/a").close();
+		cache.open("content/bb/b").close();
+		cache.open("content/aa/a").close();   // a is now the most recently used
+		cache.open("content/cc/c").close();   // 120 bytes, b has to go
+
+		// Assert
+		assertEquals(80, cache.currentBytes());
+		try (ImageDiskCache.OpenImage image = cache.open("content/aa/a")) {
+			assertEquals(40, image.size());
+			assertEquals("image/png", image.contentType());
+		}
+		verify(s3, times(1)).downloadFile(eq("content/aa/a"), any());
+		cache.open("content/bb/b").close();
+		verify(s3, times(2)).downloadFile(eq("content/bb/b"), any());
+	}
+
+	@Test
+	void testImageDiskCache_InitOnlyClearsItsOwnFiles() throws Exception {
+		// Arrange - images.cache.dir pointed at a directory that is also used for other things
+		Path dir = tempDir.resolve("shared");
+		Path cached = Files.createDirectories(dir).resolve("ab".repeat(32));
+		Files.write(cached, new byte[1]);
+		Path partial = Files.write(dir.resolve(UUID.randomUUID() + ".download"), new byte[1]);
+		Path unrelated = Files.write(dir.resolve("notes.txt"), new byte[1]);
+		Path subdirectory = Files.createDirectories(dir.resolve("ab".repeat(32) + "0"));
+		ImageDiskCache cache = new ImageDiskCache(mock(BlobStorage.class), dir.toString(), 100, Duration.ofSeconds(30), new SimpleMeterRegistry());
+
+		// Act
+		cache.init();
+
+		// Assert
+		assertFalse(Files.exists(cached));
+		assertFalse(Files.exists(partial));
+		assertTrue(Files.exists(unrelated));
+		assertTrue(Files.isDirectory(subdirectory));
+	}
+
+	@Test
+	void testImageDiskCache_OnlyServesImageKeysAndRemembersMissingOnes() throws Exception {
+		// Arrange
+		Path dir = tempDir.resolve("image-cache");
+		BlobStorage s3 = mock(BlobStorage.class);
+		when(s3.downloadFile(any(), any())).thenThrow(new NoSuchElementException("gone"));
+		ImageDiskCache cache = new ImageDiskCache(s3, dir.toString(), 100, Duration.ofSeconds(30), new SimpleMeterRegistry());
+		cache.init();
+
+		// Act & Assert
+		assertThrows(NoSuchElementException.class, () -> cache.open("content/ff/missing"));
+		assertThrows(NoSuchElementException.class, () -> cache.open("content/ff/missing"));
+		verify(s3, times(1)).downloadFile(eq("content/ff/missing"), any());   // The second miss never reached storage
+
+		assertThrows(NoSuchElementException.class, () -> cache.open("cleanup-checkpoints.json"));
+		assertThrows(NoSuchElementException.class, () -> cache.open("alice/notes/secret.txt"));
+		assertThrows(NoSuchElementException.class, () -> cache.open("alice/profile-posts/../../x"));
+		verify(s3, times(1)).downloadFile(any(), any());
+		assertTrue(BlobStorage.isImageKey("alice/profile-posts/variants/card/1_cat.jpg"));
+	}
+
+	@Test
+	void testImageVariantGenerator_ScalesDownWithoutUpscaling() throws Exception {
+		// Arrange
+		Path source = tempDir.resolve("variant-source.png");
+		BufferedImage image = new BufferedImage(3000, 1500, BufferedImage.TYPE_INT_RGB);
+		ImageIO.write(image, "png", source.toFile());
+		ImageVariantGenerator generator = new ImageVariantGenerator(mock(BlobStorage.class), 1, 1, 0.8f, 100_000_000, new SimpleMeterRegistry());
+
+		// Act
+		Map<ImageVariant, ImageVariantGenerator.EncodedImage> variants = generator.encodeVariants(source);
+
+		// Assert
+		assertEquals(1080, variants.get(ImageVariant.CARD).width());
+		assertEquals(540, variants.get(ImageVariant.CARD).height());
+		assertEquals(320, variants.get(ImageVariant.THUMB).width());
+		assertEquals("image/jpeg", variants.get(ImageVariant.THUMB).contentType());   // No alpha, so re-encoded as JPEG
+		assertEquals("alice/profile-posts/variants/card/1_cat.png", ImageVariant.CARD.keyFor("alice/profile-posts/1_cat.png"));
+
+		// A small image keeps its own size in every variant
+		ImageIO.write(new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB), "png", source.toFile());
+		ImageVariantGenerator.EncodedImage thumb = generator.encodeVariants(source).get(ImageVariant.THUMB);
+		assertEquals(200, thumb.width());
+		assertEquals("image/png", thumb.contentType());
+		generator.shutdown();
+	}
+
+	@Test
+	void testImageVariantGenerator_AppliesExifOrientation() throws Exception {
+		// Arrange - a 300x100 JPEG tagged "rotate 90 clockwise", as portrait phone photos are stored
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(300, 100, BufferedImage.TYPE_INT_RGB), "jpeg", jpeg);
+		byte[] encoded = jpeg.toByteArray();
+		byte[] exif = {
+				(byte) 0xFF, (byte) 0xE1, 0, 34,                    // APP1, length
+				'E', 'x', 'i', 'f', 0, 0,
+				'M', 'M', 0, 42, 0, 0, 0, 8,                        // Big endian TIFF header, IFD0 at 8
+				0, 1,                                               // One entry
+				0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0,           // Orientation (SHORT) = 6
+				0, 0, 0, 0};                                        // No next IFD
+		Path source = tempDir.resolve("variant-source.jpg");
+		try (OutputStream out = Files.newOutputStream(source)) {
+			out.write(encoded, 0, 2);   // SOI
+			out.write(exif);
+			out.write(encoded, 2, encoded.length - 2);
+		}
+		ImageVariantGenerator generator = new ImageVariantGenerator(mock(BlobStorage.class), 1, 1, 0.8f, 100_000_000, new SimpleMeterRegistry());
+
+		// Act
+		ImageVariantGenerator.EncodedImage card = generator.encodeVariants(source).get(ImageVariant.CARD);
+
+		// Assert
+		assertEquals(100, card.width());
+		assertEquals(300, card.height());
+		generator.shutdown();
+	}
+
+	@Test
+	void testObjectDeletionOutbox_DeletesBatchAndBacksOffFailures() {
+		// Arrange
+		ObjectDeletionDao dao = mock(ObjectDeletionDao.class);
+		BlobStorage s3 = mock(BlobStorage.class);
+		ObjectDeletion ok = new ObjectDeletion("a", LocalDateTime.now());
+		ok.setId(1L);
+		ObjectDeletion duplicate = new ObjectDeletion("a", LocalDateTime.now());
+		duplicate.setId(2L);
+		ObjectDeletion broken = new ObjectDeletion("b", LocalDateTime.now());
+		broken.setId(3L);
+		when(dao.findDue(any(), any())).thenReturn(List.of(ok, duplicate, broken));
+		when(s3.deleteFiles(List.of("a", "b"))).thenReturn(Map.of("b", "AccessDenied: no"));
+		ObjectDeletionOutbox outbox = new ObjectDeletionOutbox(dao, s3,
+				mock(PlatformTransactionManager.class),
+				Duration.ofSeconds(30), Duration.ofHours(6), new SimpleMeterRegistry());
+
+		// Act
+		outbox.drain();
+
+		// Assert
+		verify(s3).deleteFiles(List.of("a", "b"));   // One request, each key once
+		verify(dao).deleteAllByIdInBatch(List.of(1L, 2L));
+		verify(dao).saveAll(List.of(broken));
+		assertEquals(1, broken.getAttempts());
+		assertEquals("AccessDenied: no", broken.getLastError());
+		assertTrue(broken.getNextAttemptAt().isAfter(LocalDateTime.now().plusSeconds(20)));
+	}
+
+	private ContentObjectService contentObjectService(ContentObjectDao dao, BlobStorage storage, ObjectDeletionOutbox outbox) {
+		return new ContentObjectService(dao, postDao, memberDao, storage, outbox,
+				mock(PlatformTransactionManager.class), Duration.ofHours(1), new SimpleMeterRegistry());
+	}
+
+	@Test
+	void testContentObjectService_AcquireAndReleaseCountReferences() {
+		// Arrange
+		ContentObjectDao dao = mock(ContentObjectDao.class);
+		ContentObjectService service = contentObjectService(dao, blobStorage, objectDeletionOutbox);
+		ContentObject stored = content(true, false);
+		when(dao.acquire(CONTENT_KEY)).thenReturn(1);
+		when(dao.findByObjectKey(CONTENT_KEY)).thenReturn(Optional.of(stored));
+		when(dao.release(CONTENT_KEY)).thenReturn(1);
+
+		// Act & Assert
+		assertSame(stored, service.acquire(CONTENT_KEY));
+		assertThrows(NoSuchElementException.class, () -> service.acquire("content/00/gone_00000000"));   // Swept meanwhile
+		assertTrue(service.release(CONTENT_KEY));
+		verify(dao).markReleased(eq(CONTENT_KEY), any());   // Starts the grace period if that was the last reference
+		assertFalse(service.release("testUser/profile-posts/1_cat.jpg"));   // Stored before deduplication, not counted
+		verify(dao, never()).markReleased(eq("testUser/profile-posts/1_cat.jpg"), any());
+	}
+
+	@Test
+	void testContentObjectService_RegisterRetriesDuplicateKeyRace() {
+		// Arrange - another request inserts the same content between the lookup and the insert
+		ContentObjectDao dao = mock(ContentObjectDao.class);
+		ContentObjectService service = contentObjectService(dao, blobStorage, objectDeletionOutbox);
+		when(blobStorage.contentKey("3f2a", "image/jpeg")).thenReturn("content/3f/3f2a_11111111");
+		when(dao.findById("3f2a")).thenReturn(Optional.empty(), Optional.of(content(true, true)));
+		when(dao.saveAndFlush(any(ContentObject.class))).thenThrow(new DataIntegrityViolationException("uq"));
+
+		// Act
+		String key = service.register("3f2a", "image/jpeg");
+
+		// Assert
+		assertEquals(CONTENT_KEY, key);   // The winner's key, not the fresh one
+		verify(dao, times(1)).saveAndFlush(any());
+		verify(dao).markReleased(eq(CONTENT_KEY), any());   // Keeps the sweep off it until it is acquired
+	}
+
+	@Test
+	void testContentObjectService_RegisterGivesUpAfterSecondConflict() {
+		// Arrange
+		ContentObjectDao dao = mock(ContentObjectDao.class);
+		ContentObjectService service = contentObjectService(dao, blobStorage, objectDeletionOutbox);
+		when(blobStorage.contentKey("3f2a", "image/jpeg")).thenReturn("content/3f/3f2a_11111111");
+		when(dao.findById("3f2a")).thenReturn(Optional.empty());
+		when(dao.saveAndFlush(any(ContentObject.class))).thenThrow(new DataIntegrityViolationException("uq"));
+
+		// Act & Assert
+		assertThrows(DataIntegrityViolationException.class, () -> service.register("3f2a", "image/jpeg"));
+		verify(dao, times(2)).saveAndFlush(any());
+	}
+
+	@Test
+	void testContentObjectService_RemoveReleasedQueuesExpiredContentWithVariants() {
+		// Arrange
+		ContentObjectDao dao = mock(ContentObjectDao.class);
+		ObjectDeletionOutbox outbox = mock(ObjectDeletionOutbox.class);
+		ContentObjectService service = contentObjectService(dao, blobStorage, outbox);
+		when(dao.findReleasedBefore(any(), any())).thenReturn(List.of("3f2a", "77aa"));
+		when(dao.findById("3f2a")).thenReturn(Optional.of(content(true, true)));
+		when(dao.findById("77aa")).thenReturn(Optional.of(new ContentObject("77aa", "content/77/77aa_22222222", null)));
+		when(dao.deleteIfReleasedBefore(eq("3f2a"), any())).thenReturn(1);
+		when(dao.deleteIfReleasedBefore(eq("77aa"), any())).thenReturn(0);   // Acquired again since it was found
+
+		// Act
+		LocalDateTime start = LocalDateTime.now();
+		service.removeReleased();
+
+		// Assert
+		ArgumentCaptor<LocalDateTime> before = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(dao).findReleasedBefore(before.capture(), eq(Limit.of(500)));
+		assertFalse(before.getValue().isBefore(start.minusHours(1)));   // Only content released longer than the grace period
+		assertTrue(before.getValue().isBefore(start.minusMinutes(59)));
+		verify(dao).deleteIfReleasedBefore("3f2a", before.getValue());
+		verify(outbox).enqueue(ImageVariant.keysWithVariants(CONTENT_KEY));
+		verify(outbox, times(1)).enqueue(any());
+	}
+
+	@Test
+	void testBucketCleanup_ResumesFromCheckpointAndSkipsFinishedPartitions() {
+		// Arrange
+		CleanupCheckpointDao checkpointDao = mock(CleanupCheckpointDao.class);
+		BlobStorage s3 = mock(BlobStorage.class);
+		ObjectDeletionOutbox outbox = mock(ObjectDeletionOutbox.class);
+		CleanupCheckpoint finished = new CleanupCheckpoint("job", "alice/profile-posts/");
+		finished.setCompleted(true);
+		CleanupCheckpoint interrupted = new CleanupCheckpoint("job", "bob/profile-posts/");
+		interrupted.setContinuationToken("t1");
+		interrupted.setDeletedCount(1000);
+		when(checkpointDao.findByJobNameAndPrefix("job", "alice/profile-posts/")).thenReturn(Optional.of(finished));
+		when(checkpointDao.findByJobNameAndPrefix("job", "bob/profile-posts/")).thenReturn(Optional.of(interrupted));
+		when(checkpointDao.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(s3.listObjects("bob/profile-posts/", "t1"))
+				.thenReturn(new BlobStorage.ObjectPage(List.of("bob/profile-posts/a", "bob/profile-posts/b"), "t2"));
+		when(s3.listObjects("bob/profile-posts/", "t2"))
+				.thenReturn(new BlobStorage.ObjectPage(List.of("bob/profile-posts/c"), null));
+		when(s3.deleteFiles(List.of("bob/profile-posts/a", "bob/profile-posts/b"))).thenReturn(Map.of());
+		when(s3.deleteFiles(List.of("bob/profile-posts/c"))).thenReturn(Map.of("bob/profile-posts/c", "SlowDown: later"));
+		BucketCleanupService cleanup = new BucketCleanupService(s3, checkpointDao, outbox,
+				mock(PlatformTransactionManager.class),
+				2, Duration.ofSeconds(10), new SimpleMeterRegistry());
+
+		// Act
+		BucketCleanupService.CleanupReport report = cleanup.cleanup("job", List.of("alice/profile-posts/", "bob/profile-posts/"));
+
+		// Assert
+		verify(s3, never()).listObjects(eq("alice/profile-posts/"), any());
+		verify(s3, never()).listObjects("bob/profile-posts/", null);
+		verify(outbox).enqueue(Set.of("bob/profile-posts/c"));
+		verify(checkpointDao).deleteAllByJob("job");
+		assertEquals(2, report.partitions());
+		assertEquals(2, report.deleted());
+		assertEquals(1, report.failed());
+		assertTrue(interrupted.isCompleted());
+		assertNull(interrupted.getContinuationToken());
+		assertEquals(1002, interrupted.getDeletedCount());
+	}
+
+	private MockHttpServletResponse getImage(ImageController controller, String range, String ifRange) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/content/aa/a");
+		if (range != null) {
+			request.addHeader(HttpHeaders.RANGE, range);
+		}
+		if (ifRange != null) {
+			request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		controller.getImage(request, response);
+		return response;
+	}
+
+	@Test
+	void testImageController_ServesByteRanges() throws Exception {
+		// Arrange
+		byte[] content = new byte[100];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		Path file = Files.write(tempDir.resolve("a"), content);
+		ImageDiskCache cache = mock(ImageDiskCache.class);
+		when(cache.open("content/aa/a")).thenAnswer(invocation -> new ImageDiskCache.OpenImage(FileChannel.open(file), 100, "\"e\"", "image/png"));
+		ImageController controller = new ImageController(cache, 60);
+
+		// Act & Assert
+		MockHttpServletResponse partial = getImage(controller, "bytes=10-19", null);
+		assertEquals(206, partial.getStatus());
+		assertEquals("bytes 10-19/100", partial.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertArrayEquals(Arrays.copyOfRange(content, 10, 20), partial.getContentAsByteArray());
+
+		MockHttpServletResponse suffix = getImage(controller, "bytes=-10", null);   // The last 10 bytes
+		assertEquals(206, suffix.getStatus());
+		assertEquals("bytes 90-99/100", suffix.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertArrayEquals(Arrays.copyOfRange(content, 90, 100), suffix.getContentAsByteArray());
+
+		MockHttpServletResponse openEnded = getImage(controller, "bytes=95-500", null);   // Clamped to the end
+		assertEquals("bytes 95-99/100", openEnded.getHeader(HttpHeaders.CONTENT_RANGE));
+
+		MockHttpServletResponse unsatisfiable = getImage(controller, "bytes=100-", null);
+		assertEquals(416, unsatisfiable.getStatus());
+		assertEquals("bytes */100", unsatisfiable.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertEquals(416, getImage(controller, "bytes=-0", null).getStatus());
+
+		MockHttpServletResponse stale = getImage(controller, "bytes=10-19", "\"old\"");   // Changed since, whole file
+		assertEquals(200, stale.getStatus());
+		assertArrayEquals(content, stale.getContentAsByteArray());
+		assertEquals(100, getImage(controller, "bytes=0-1,5-6", null).getContentAsByteArray().length);   // Multiple ranges are not supported
+	}
+
+	@Test
+	void testLocalBlobController_RejectsBodiesNotMatchingTheSignedChecksum() throws Exception {
+		// Arrange
+		LocalBlobStorage storage = new LocalBlobStorage(tempDir.resolve("blobs").toString(), "secret", "http://localhost:8080",
+				Duration.ofMinutes(30), Duration.ofMinutes(10));
+		LocalBlobController controller = new LocalBlobController(storage);
+		byte[] content = "the signed image".getBytes(StandardCharsets.UTF_8);
+		byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(content);
+		String checksum = Base64.getEncoder().encodeToString(sha256);
+		String url = storage.presignUpload(CONTENT_KEY, "image/png", content.length, HexFormat.of().formatHex(sha256)).url();
+		String query = url.substring(url.indexOf('?') + 1);
+		long expires = Long.parseLong(query.substring("expires=".length(), query.indexOf('&')));
+		String signature = query.substring(query.indexOf("signature=") + "signature=".length());
+
+		// Act
+		MockHttpServletResponse tampered = putBlob(controller, "the other image!".getBytes(StandardCharsets.UTF_8), checksum, expires, signature);
+		MockHttpServletResponse unsigned = putBlob(controller, content, Base64.getEncoder().encodeToString(new byte[32]), expires, signature);
+		MockHttpServletResponse missing = putBlob(controller, content, null, expires, signature);
+		MockHttpServletResponse accepted = putBlob(controller, content, checksum, expires, signature);
+
+		// Assert
+		assertEquals(400, tampered.getStatus());   // Same length, different content
+		assertEquals(403, unsigned.getStatus());   // Not the checksum that was signed
+		assertEquals(403, missing.getStatus());
+		assertEquals(200, accepted.getStatus());
+		storage.downloadFile(CONTENT_KEY, tempDir.resolve("download"));
+		assertArrayEquals(content, Files.readAllBytes(tempDir.resolve("download")));
+	}
+
+	private MockHttpServletResponse putBlob(LocalBlobController controller, byte[] body, String checksum, long expires, String signature) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/blobs/" + CONTENT_KEY);
+		request.setContentType("image/png");
+		request.setContent(body);
+		if (checksum != null) {
+			request.addHeader("x-amz-checksum-sha256", checksum);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		controller.putBlob(expires, signature, request, response);
+		return response;
+	}
+
+	@Test
+	void testLocalBlobStorage_StoresListsAndSignsUrls() throws Exception {
+		// Arrange
+		Path dir = tempDir.resolve("blobs");
+		LocalBlobStorage storage = new LocalBlobStorage(dir.toString(), "secret", "http://localhost:8080",
+				Duration.ofMinutes(30), Duration.ofMinutes(10));
+		byte[] content = "not really a png".getBytes();
 
 		// Act
-		List<Map<String, Object>> result = postService.getAllPosts();
+		storage.uploadFile("alice/profile-posts/1_a.png", content, "image/png");
+		storage.uploadFile("alice/profile-posts/2_b.png", content, "image/png");
+		storage.uploadFile("bob/profile-photos/3_c.png", content, "image/png");
+		Path downloaded = tempDir.resolve("download");
+		BlobStorage.StoredObject stored = storage.downloadFile("alice/profile-posts/1_a.png", downloaded);
+		String url = storage.getImageUrl("alice/profile-posts/1_a.png");
+		Map<String, String> errors = storage.deleteFiles(List.of("alice/profile-posts/2_b.png", "alice/profile-posts/missing.png"));
 
 		// Assert
-		assertFalse(result.isEmpty());
-		Map<String, Object> firstPost = result.getFirst();
-		assertEquals(testPost.getId(), firstPost.get("id"));
-		assertEquals(testPost.getCaption(), firstPost.get("caption"));
-		assertEquals(5, firstPost.get("likeCount"));
-		assertEquals(3, firstPost.get("commentCount"));
+		assertArrayEquals(content, Files.readAllBytes(downloaded));
+		assertEquals("image/png", stored.contentType());
+		assertEquals(content.length, stored.contentLength());
+		assertEquals(List.of("alice/", "bob/"), storage.listChildPrefixes(""));
+		assertEquals(List.of("alice/profile-posts/1_a.png"), storage.listObjects("alice/profile-posts/", null).keys());
+		assertEquals(List.of("alice/profile-posts/1_a.png", "bob/profile-photos/3_c.png"), storage.listObjects("", null).keys());
+		assertTrue(errors.isEmpty());   // A missing key counts as deleted
+		assertThrows(NoSuchElementException.class, () -> storage.headFile("alice/profile-posts/2_b.png"));
+		assertThrows(IllegalArgumentException.class, () -> storage.headFile("alice/../../etc/passwd"));
+
+		String query = url.substring(url.indexOf('?') + 1);
+		long expires = Long.parseLong(query.substring("expires=".length(), query.indexOf('&')));
+		String signature = query.substring(query.indexOf("signature=") + "signature=".length());
+		assertTrue(url.startsWith("http://localhost:8080/api/blobs/alice/profile-posts/1_a.png?"));
+		assertTrue(storage.isValidDownload("alice/profile-posts/1_a.png", expires, signature));
+		assertFalse(storage.isValidDownload("bob/profile-photos/3_c.png", expires, signature));
+		assertFalse(storage.isValidDownload("alice/profile-posts/1_a.png", expires + 60, signature));
 	}
-}
\ No newline at end of file
+}
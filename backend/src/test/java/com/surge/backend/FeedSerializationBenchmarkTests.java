@@ -0,0 +1,100 @@
+package com.surge.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.surge.backend.dto.PostFeedItemDto;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Compares building + serializing one feed response as HashMap-per-post (the previous shape) against the
+// PostFeedItemDto record with its dedicated serializer. The benchmark reports bytes allocated per feed request on
+// this thread, it depends on the JIT and is not part of the default test run (mvn test -Pbenchmark).
+class FeedSerializationBenchmarkTests {
+	private static final Logger logger = LoggerFactory.getLogger(FeedSerializationBenchmarkTests.class);
+
+	private static final int POSTS_PER_REQUEST = 100;
+	private static final int WARMUP_ROUNDS = 3_000;
+	private static final int MEASURED_ROUNDS = 1_000;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private List<Map<String, Object>> buildMapFeed() {
+		List<Map<String, Object>> feed = new ArrayList<>(POSTS_PER_REQUEST);
+		for (int i = 0; i < POSTS_PER_REQUEST; i++) {
+			Map<String, Object> postMap = new HashMap<>();
+			postMap.put("id", (long) i);
+			postMap.put("username", "user" + (i % 7));
+			postMap.put("likeCount", i * 3);
+			postMap.put("img", "https://bucket.s3.amazonaws.com/user/profile-posts/" + i + ".jpg");
+			postMap.put("commentCount", i % 11);
+			postMap.put("isLiked", i % 2 == 0);
+			postMap.put("isSaved", i % 3 == 0);
+			postMap.put("caption", "Caption number " + i);
+			postMap.put("date", "3h");
+			feed.add(postMap);
+		}
+		return feed;
+	}
+
+	private List<PostFeedItemDto> buildRecordFeed() {
+		List<PostFeedItemDto> feed = new ArrayList<>(POSTS_PER_REQUEST);
+		for (int i = 0; i < POSTS_PER_REQUEST; i++) {
+			feed.add(new PostFeedItemDto(
+					i,
+					"user" + (i % 7),
+					i * 3,
+					"https://bucket.s3.amazonaws.com/user/profile-posts/" + i + ".jpg",
+					i % 11,
+					i % 2 == 0,
+					i % 3 == 0,
+					"Caption number " + i,
+					"3h",
+					null));
+		}
+		return feed;
+	}
+
+	private long bytesPerRequest(Supplier<?> buildFeed) throws Exception {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long sink = 0;
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			sink += objectMapper.writeValueAsBytes(buildFeed.get()).length;
+		}
+
+		long threadId = Thread.currentThread().threadId();
+		long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			sink += objectMapper.writeValueAsBytes(buildFeed.get()).length;
+		}
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue(sink > 0);
+		return allocated / MEASURED_ROUNDS;
+	}
+
+	@Test
+	void testRecordSerializationMatchesMapSerialization() throws Exception {
+		assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(buildMapFeed())),
+				objectMapper.readTree(objectMapper.writeValueAsBytes(buildRecordFeed())));
+	}
+
+	@Test
+	@Tag("benchmark")
+	void benchmarkFeedAllocations() throws Exception {
+		long mapBytes = bytesPerRequest(this::buildMapFeed);
+		long recordBytes = bytesPerRequest(this::buildRecordFeed);
+
+		logger.info("Feed of {} posts, bytes allocated per request: HashMap {}, record {} ({}% less)",
+				POSTS_PER_REQUEST, mapBytes, recordBytes, Math.round(100.0 * (mapBytes - recordBytes) / mapBytes));
+	}
+}
@@ -185,7 +185,7 @@ const Profile = ({ posts, fetchUserPosts, profileUsername, profileData }) => {
                             }}>
                                 <div className="absolute inset-0">
                                     <Image
-                                        src={post.img || "/images/placeholderpost.png"}
+                                        src={post.thumbImg || post.img || "/images/placeholderpost.png"}
                                         alt={`Post ${index + 1}`}
                                         fill
                                         className="object-cover"